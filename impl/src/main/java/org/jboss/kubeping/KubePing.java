@@ -16,19 +16,52 @@
 
 package org.jboss.kubeping;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.jboss.kubeping.dns.DnsResolver;
+import org.jboss.kubeping.rest.AbstractServer;
 import org.jboss.kubeping.rest.Certs;
 import org.jboss.kubeping.rest.Client;
 import org.jboss.kubeping.rest.Container;
-import org.jboss.kubeping.rest.Context;
+import org.jboss.kubeping.rest.DiscoveryTimeline;
+import org.jboss.kubeping.rest.DnsClient;
+import org.jboss.kubeping.rest.LabelSelector;
+import org.jboss.kubeping.rest.OldestPodOrdering;
+import org.jboss.kubeping.rest.PeerLeavingException;
+import org.jboss.kubeping.rest.PeerOrdering;
+import org.jboss.kubeping.rest.PeerWatcher;
 import org.jboss.kubeping.rest.Pod;
+import org.jboss.kubeping.rest.PodCache;
+import org.jboss.kubeping.rest.RateLimiter;
+import org.jboss.kubeping.rest.SameNodeOrdering;
+import org.jboss.kubeping.rest.SameZoneOrdering;
 import org.jboss.kubeping.rest.Server;
 import org.jboss.kubeping.rest.ServerFactory;
+import org.jboss.kubeping.rest.SlimPingData;
 import org.jboss.kubeping.rest.Utils;
 import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.View;
 import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.protocols.FILE_PING;
@@ -39,6 +72,8 @@ import org.jgroups.protocols.PingData;
  */
 @MBean(description = "Kubernetes based discovery protocol")
 public class KubePing extends FILE_PING {
+    private static final long ZONE_CACHE_PERIOD = 5 * 60 * 1000L;
+
     static {
         ClassConfigurator.addProtocol(Constants.KUBE_PING_ID, KubePing.class);
     }
@@ -64,6 +99,15 @@ public class KubePing extends FILE_PING {
     @Property
     private String pingPortName = "ping";
 
+    @Property
+    private String transportPortName;
+
+    @Property
+    private String pingDataAnnotation;
+
+    @Property
+    private String podName;
+
     @Property
     private String certFile;
 
@@ -79,14 +123,134 @@ public class KubePing extends FILE_PING {
     @Property
     private String caFile;
 
+    @Property
+    private boolean breakOnCoord;
+
+    @Property
+    private boolean sharedPodCache;
+
+    @Property
+    private long podCacheRefreshInterval = 5000;
+
+    @Property
+    private long staleWhileRevalidate;
+
+    @Property
+    private double masterRequestRate = 5;
+
+    @Property
+    private int masterRequestBurst = 10;
+
+    @Property
+    private long discoveryInitialDelay;
+
+    @Property
+    private boolean onlyRunningPods = true;
+
+    @Property
+    private boolean onlyReadyPods;
+
+    @Property
+    private boolean skipTerminatingPods = true;
+
+    @Property
+    private String peerOrdering;
+
+    @Property
+    private String zoneLabel = "failure-domain.beta.kubernetes.io/zone";
+
+    @Property
+    private String nodeName;
+
+    @Property
+    private String dnsNames;
+
+    @Property
+    private String dnsServers;
+
+    @Property
+    private int dnsTimeout = 2000;
+
+    @Property
+    private boolean slimPingData = true;
+
+    @Property
+    private int connectTimeout = 5000;
+
+    @Property
+    private int readTimeout = 5000;
+
+    @Property
+    private long discoveryTimeout = 30000;
+
+    @Property
+    private int hedgePercentile = 95;
+
+    @Property
+    private int watchPeers;
+
+    @Property
+    private long watchTimeout = 30000;
+
+    @Property
+    private int diagnosticRounds = 20;
+
+    @Property
+    private String membershipFile;
+
+    @Property
+    private boolean protobuf;
+
+    @Property
+    private int serverThreads = 16;
+
+    @Property
+    private int serverQueue = 64;
+
+    @Property
+    private long leaveGracePeriod = 1000;
+
+    @Property
+    private String leaveToken;
+
+    @Property
+    private int parallelPeerFetches;
+
+    @Property
+    private int discoverySample;
+
+    @Property
+    private String podAgent;
+
+    @Property
+    private String podAgentToken;
+
     private ServerFactory factory;
+    private PeerOrdering ordering;
     private Server server;
     private Client client;
+    private PodCache podCache;
+    private volatile String lastCoordinator;
+    private volatile Membership membership;
+    private final AtomicReference<FutureTask<Membership>> inflight = new AtomicReference<>();
+    private ExecutorService revalidator;
+    private final AtomicBoolean firstRound = new AtomicBoolean(true);
+    private volatile List<String> cutOffPeers = new ArrayList<>();
+    private final AtomicLong cutOffRounds = new AtomicLong();
+    private PeerWatcher watcher;
+    private DiscoveryTimeline timeline;
+    private MembershipStore store;
+    private volatile Map<String, PingData> recalled = Collections.emptyMap();
+    private final AtomicBoolean warmStart = new AtomicBoolean(true);
 
     public void setFactory(ServerFactory factory) {
         this.factory = factory;
     }
 
+    public void setOrdering(PeerOrdering ordering) {
+        this.ordering = ordering;
+    }
+
     private String getHost() {
         if (host != null) {
             return host;
@@ -147,20 +311,135 @@ public class KubePing extends FILE_PING {
         }
     }
 
+    protected PeerOrdering createOrdering() {
+        String name = trimToNull(getPeerOrdering());
+        if (name == null || "none".equals(name)) {
+            return null;
+        } else if ("same-node".equals(name)) {
+            return new SameNodeOrdering();
+        } else if ("same-zone".equals(name)) {
+            return new SameZoneOrdering(client, getZoneLabel(), ZONE_CACHE_PERIOD);
+        } else if ("oldest".equals(name)) {
+            return new OldestPodOrdering();
+        } else {
+            throw new IllegalArgumentException("No such peer ordering: " + name);
+        }
+    }
+
     protected Client createClient() throws Exception {
+        if (getDnsNames() != null) {
+            DnsResolver resolver = new DnsResolver(DnsResolver.parseServers(getDnsServers()), getDnsTimeout());
+            return new DnsClient(resolver, split(getDnsNames()), getDiscoveryPortName(), getServerPort());
+        }
         return new Client(getHost(), getPort(), getVersion(), createCerts());
     }
 
+    /**
+     * There is no master in DNS mode, so fail fast on features which need one,
+     * instead of failing or warning on every discovery round.
+     */
+    private void checkDnsMode() {
+        List<String> unsupported = new ArrayList<>();
+        String name = trimToNull(getPeerOrdering());
+        if ("same-node".equals(name) || "same-zone".equals(name)) {
+            unsupported.add("peerOrdering=" + name);
+        }
+        if (getPingDataAnnotation() != null) {
+            unsupported.add("pingDataAnnotation");
+        }
+        if (isSharedPodCache()) {
+            unsupported.add("sharedPodCache");
+        }
+        if (getPodAgent() != null) {
+            unsupported.add("podAgent");
+        }
+        if (unsupported.isEmpty() == false) {
+            throw new IllegalArgumentException(String.format("No Kubernetes master with dnsNames, can't use: %s", unsupported));
+        }
+    }
+
     @Override
     public void start() throws Exception {
+        if (getDnsNames() != null) {
+            checkDnsMode();
+        }
+        // pods may be matched on this side, by a shared cache or agent, so fail fast on what it can't evaluate
+        LabelSelector.parse(getLabelsQuery());
         client = createClient();
+        client.setRateLimiter(new RateLimiter(getMasterRequestRate(), getMasterRequestBurst()));
+        client.setSlimPingData(isSlimPingData());
+        client.setProtobuf(isProtobuf());
+        client.setTimeouts(getConnectTimeout(), getReadTimeout());
+        if (getParallelPeerFetches() > 0) {
+            client.setMaxPeerConnections(getParallelPeerFetches());
+        }
+        if (getPodAgent() != null) {
+            client.setAgentURL(getPodAgent());
+            client.setAgentToken(getPodAgentToken());
+            log.info(String.format("Listing pods via agent %s.", getPodAgent()));
+        }
+        if (client.getMasters() != null) {
+            client.getMasters().setHedgePercentile(getHedgePercentile());
+        }
         log.info(client.info());
 
+        if (ordering == null) {
+            ordering = createOrdering();
+        }
+
+        if (isSharedPodCache() && client.getRootURL() != null) {
+            podCache = PodCache.acquire(client, getNamespace(), getPodCacheRefreshInterval());
+        }
+
+        if (getStaleWhileRevalidate() > 0) {
+            revalidator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "kubeping-revalidate");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        if (getMembershipFile() != null && getPingDataAnnotation() == null) {
+            store = new MembershipStore(new File(getMembershipFile()));
+            try {
+                recalled = store.load();
+                log.info(String.format("Recalled %s member(s) from %s", recalled.size(), store.getFile()));
+            } catch (IOException e) {
+                log.warn(String.format("Ignoring membership file %s", store.getFile()), e);
+            }
+        }
+
+        if (isDirect()) {
+            log.info(String.format("Direct discovery via transport port: %s, no ping server started.", getTransportPortName()));
+            return;
+        }
+        if (getPingDataAnnotation() != null) {
+            log.info(String.format("Ping data published as annotation %s on pod %s, no ping server started.", getPingDataAnnotation(), getPodName()));
+            return;
+        }
+
+        if (getWatchPeers() > 0) {
+            watcher = new PeerWatcher(client, getWatchTimeout(), new PeerWatcher.Listener() {
+                public void changed(String peer, PingData data) {
+                    peerChanged(peer, data);
+                }
+            });
+        }
+
         if (factory != null) {
             server = factory.create(getServerPort(), stack.getChannel());
         } else {
             server = Utils.createServer(getServerPort(), stack.getChannel());
         }
+        server.setLimits(getServerThreads(), getServerQueue());
+        server.setLeaveGracePeriod(getLeaveGracePeriod());
+        server.setLeaveToken(getLeaveToken());
+        if (getDiagnosticRounds() > 0) {
+            timeline = new DiscoveryTimeline(getDiagnosticRounds());
+            server.setTimeline(timeline);
+        }
         final String serverName = server.getClass().getSimpleName();
         log.info(String.format("Starting server: %s, daemon port: %s, channel address: %s", serverName, getServerPort(), stack.getChannel().getAddress()));
         server.start();
@@ -170,11 +449,34 @@ public class KubePing extends FILE_PING {
     @Override
     public void stop() {
         try {
-            final String serverName = server.getClass().getSimpleName();
-            log.info(String.format("Stopping server: %s", serverName));
-            server.stop();
-            log.info(String.format("%s stopped.", serverName));
+            if (server != null) {
+                final String serverName = server.getClass().getSimpleName();
+                log.info(String.format("Stopping server: %s", serverName));
+                server.stop();
+                log.info(String.format("%s stopped.", serverName));
+                server = null;
+            }
         } finally {
+            if (podCache != null) {
+                podCache.release();
+                podCache = null;
+            }
+            if (watcher != null) {
+                watcher.stop();
+                watcher = null;
+            }
+            if (revalidator != null) {
+                revalidator.shutdownNow();
+                revalidator = null;
+            }
+            if (client != null) {
+                client.close();
+            }
+            membership = null;
+            store = null;
+            recalled = Collections.emptyMap();
+            warmStart.set(true);
+            firstRound.set(true);
             super.stop();
         }
     }
@@ -182,25 +484,417 @@ public class KubePing extends FILE_PING {
     /**
      * Reads all information from the given directory under clustername
      *
+     * Concurrent callers share a single in-flight discovery round.
+     * If staleWhileRevalidate is set, a recent enough membership is returned immediately,
+     * while a new round runs in the background.
+     *
      * @return all data
      */
-    protected synchronized List<PingData> readAll(String clusterName) {
+    protected List<PingData> readAll(String clusterName) {
+        Membership current = membership;
+        if (current != null && revalidator != null && current.isOlderThan(getStaleWhileRevalidate()) == false) {
+            revalidate(clusterName);
+            return new ArrayList<>(current.getData());
+        }
+        return new ArrayList<>(discover(clusterName).getData());
+    }
+
+    private Membership discover(String clusterName) {
+        while (true) {
+            FutureTask<Membership> task = inflight.get();
+            if (task == null) {
+                task = createDiscovery(clusterName);
+                if (inflight.compareAndSet(null, task) == false) {
+                    continue;
+                }
+                task.run();
+            }
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Membership(new ArrayList<PingData>(), false);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private void revalidate(String clusterName) {
+        final FutureTask<Membership> task = createDiscovery(clusterName);
+        if (inflight.compareAndSet(null, task)) {
+            try {
+                revalidator.execute(task);
+            } catch (Exception e) {
+                inflight.compareAndSet(task, null);
+            }
+        }
+    }
+
+    private FutureTask<Membership> createDiscovery(final String clusterName) {
+        final AtomicReference<FutureTask<Membership>> self = new AtomicReference<>();
+        FutureTask<Membership> task = new FutureTask<>(new Callable<Membership>() {
+            public Membership call() throws Exception {
+                try {
+                    Membership result = doReadAll(clusterName);
+                    if (result.isComplete()) {
+                        membership = result;
+                    }
+                    return result;
+                } finally {
+                    inflight.compareAndSet(self.get(), null);
+                }
+            }
+        });
+        self.set(task);
+        return task;
+    }
+
+    protected Membership doReadAll(String clusterName) {
+        DiscoveryTimeline.Round round = new DiscoveryTimeline.Round(clusterName);
+        Membership result = doReadAll(clusterName, round);
+        round.finish(result.getData().size(), result.isComplete());
+        if (timeline != null) {
+            timeline.add(round);
+        }
+        return result;
+    }
+
+    private Membership doReadAll(String clusterName, DiscoveryTimeline.Round round) {
         List<PingData> retval = new ArrayList<>();
+        boolean complete = false;
+        // the whole round is bounded, including the initial delay, the pod list and its ordering
+        final long deadline = (getDiscoveryTimeout() > 0) ? System.currentTimeMillis() + getDiscoveryTimeout() : Long.MAX_VALUE;
         try {
-            List<Pod> pods = client.getPods(getNamespace(), getLabelsQuery());
+            if (recalled.isEmpty() == false && warmStart.compareAndSet(true, false)) {
+                // restarting, the last known members may let us rejoin without waiting for the master
+                Membership warm = recall(clusterName, round, true, deadline);
+                if (warm != null) {
+                    log.info(String.format("Rejoining cluster %s via %s recalled member(s).", clusterName, warm.getData().size()));
+                    return warm;
+                }
+            }
+            if (getDiscoveryInitialDelay() > 0 && firstRound.compareAndSet(true, false)) {
+                // spread the first master call of many pods starting at once
+                long delay = (long) (new Random().nextDouble() * getDiscoveryInitialDelay());
+                Thread.sleep(Math.max(0, Math.min(delay, deadline - System.currentTimeMillis())));
+            }
+            long listStart = System.nanoTime();
+            List<Pod> pods;
+            try {
+                pods = new ArrayList<>(getPods(deadline));
+            } catch (Exception e) {
+                Membership fallback = recall(clusterName, round, false, deadline);
+                if (fallback == null) {
+                    throw e;
+                }
+                round.failed(e);
+                log.warn(String.format("Failed to list pods [%s] for cluster %s, using %s recalled member(s).", client.info(), clusterName, fallback.getData().size()), e);
+                return fallback;
+            }
+            round.podList((System.nanoTime() - listStart) / 1000000, pods.size());
+            if (ordering != null) {
+                try {
+                    ordering.order(pods, getLocalNode(pods), deadline);
+                } catch (Exception e) {
+                    log.warn("Failed to order pods, using them as listed.", e);
+                }
+            }
+            if (getPingDataAnnotation() != null) {
+                // every member publishes its own data, so the pod list is all we need
+                for (Pod pod : pods) {
+                    String value = pod.getAnnotations().get(getPingDataAnnotation());
+                    if (value != null && acceptPod(pod)) {
+                        try {
+                            retval.add(SlimPingData.fromBase64(value));
+                        } catch (Exception e) {
+                            log.warn(String.format("Invalid ping data annotation on pod %s.", pod.getName()), e);
+                        }
+                    }
+                }
+                return new Membership(retval, true);
+            }
+            List<Container> targets = new ArrayList<>();
+            // the oldest pod is only needed to seed a sample, direct discovery asks no one
+            boolean sampling = getDiscoverySample() > 0 && isDirect() == false;
+            String oldest = null;
+            long oldestCreated = Long.MAX_VALUE;
             for (Pod pod : pods) {
+                if (acceptPod(pod) == false) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Skipping pod %s, phase: %s, ready: %s, deleted: %s", pod.getPodIP(), pod.getPhase(), pod.isReady(), pod.getDeletionTimestamp()));
+                    }
+                    continue;
+                }
                 List<Container> containers = pod.getContainers();
                 for (Container container : containers) {
-                    Context context = new Context(container, getPingPortName());
-                    if (client.accept(context)) {
-                        retval.add(client.getPingData(container.getPodIP(), container.getPort(getPingPortName()).getContainerPort()));
+                    if (client.accept(container, getDiscoveryPortName())) {
+                        if (sampling && pod.getCreationTimestamp() > 0 && pod.getCreationTimestamp() < oldestCreated) {
+                            oldestCreated = pod.getCreationTimestamp();
+                            oldest = toKey(container);
+                        }
+                        if (isBreakOnCoord() && toKey(container).equals(lastCoordinator)) {
+                            targets.add(0, container); // previous coordinator first
+                        } else {
+                            targets.add(container);
+                        }
                     }
                 }
             }
+            if (isDirect()) {
+                // no need to ask the pods, discovery contacts their transport directly
+                Map<String, PingData> known = new LinkedHashMap<>();
+                for (Container container : targets) {
+                    PingData data = Utils.createPingData(container.getPodIP(), container.getPort(getTransportPortName()).getContainerPort());
+                    retval.add(data);
+                    known.put(toKey(container), data);
+                }
+                remember(known);
+                return new Membership(retval, true);
+            }
+            Address localAddress = stack.getChannel().getAddress();
+            List<String> cutOff = new ArrayList<>();
+            List<String> answered = new ArrayList<>();
+            Map<String, PingData> known = new LinkedHashMap<>();
+            int wave = targets.size();
+            if (sampling && targets.size() > getDiscoverySample() + 1) {
+                // the previous coordinator, else the oldest pod, then a sample; more only if no coordinator answers
+                targets = sample(targets, (lastCoordinator != null) ? lastCoordinator : oldest, String.valueOf(localAddress));
+                wave = PeerSample.firstWave(getDiscoverySample(), targets.size());
+            }
+            // all peers of a wave asked at once, answers are still taken in order
+            List<Future<PingData>> pending = (getParallelPeerFetches() > 0) ? new ArrayList<Future<PingData>>(targets.size()) : null;
+            boolean coordinator = false;
+            try {
+                for (int i = 0; i < targets.size(); i++) {
+                    if (i == wave) {
+                        if (coordinator) {
+                            break;
+                        }
+                        wave = PeerSample.widen(wave, targets.size());
+                        if (log.isDebugEnabled()) {
+                            log.debug(String.format("No coordinator among %s sampled peer(s) of cluster %s, asking %s.", i, clusterName, wave));
+                        }
+                    }
+                    while (pending != null && pending.size() < wave) {
+                        Container next = targets.get(pending.size());
+                        pending.add(client.getPingDataAsync(next.getPodIP(), next.getPort(getPingPortName()).getContainerPort(), deadline));
+                    }
+                    Container container = targets.get(i);
+                    String key = toKey(container);
+                    if (System.currentTimeMillis() >= deadline && (pending == null || pending.get(i).isDone() == false)) {
+                        cutOff.add(key);
+                        round.fetch(key, "cut-off", 0, 0);
+                        continue;
+                    }
+                    long fetchStart = System.nanoTime();
+                    long retries = client.getPingRetries();
+                    long notModified = client.getNotModified();
+                    PingData data;
+                    try {
+                        if (pending != null) {
+                            data = await(pending.get(i), deadline);
+                        } else {
+                            data = client.getPingData(container.getPodIP(), container.getPort(getPingPortName()).getContainerPort(), deadline);
+                        }
+                    } catch (PeerLeavingException e) {
+                        // stopping, it won't be a member for long
+                        round.fetch(key, "leaving", (System.nanoTime() - fetchStart) / 1000000, client.getPingRetries() - retries);
+                        continue;
+                    } catch (Exception e) {
+                        boolean expired = System.currentTimeMillis() >= deadline;
+                        round.fetch(key, expired ? "cut-off" : "failed: " + e.getMessage(), (System.nanoTime() - fetchStart) / 1000000, client.getPingRetries() - retries);
+                        if (expired == false) {
+                            throw e;
+                        }
+                        cutOff.add(key);
+                        continue;
+                    }
+                    round.fetch(key, client.getNotModified() > notModified ? "not-modified" : "ok", (System.nanoTime() - fetchStart) / 1000000, client.getPingRetries() - retries);
+                    retval.add(data);
+                    known.put(key, data);
+                    if (data.getAddress() != null && data.getAddress().equals(localAddress) == false) {
+                        // coordinators first, they are the ones to watch
+                        answered.add(data.isCoord() ? 0 : answered.size(), toKey(container));
+                    }
+                    if (data.isCoord() && data.getAddress() != null && data.getAddress().equals(localAddress) == false) {
+                        lastCoordinator = toKey(container);
+                        coordinator = true;
+                        if (isBreakOnCoord()) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                if (pending != null) {
+                    for (Future<PingData> future : pending) {
+                        future.cancel(true);
+                    }
+                }
+            }
+            cutOffPeers = cutOff;
+            if (cutOff.isEmpty() == false) {
+                cutOffRounds.incrementAndGet();
+                log.warn(String.format("Discovery budget of %s ms ran out for cluster %s, cut off peers: %s", getDiscoveryTimeout(), clusterName, cutOff));
+                return new Membership(retval, false, cutOff);
+            }
+            if (watcher != null) {
+                watcher.watch(answered.subList(0, Math.min(answered.size(), getWatchPeers())));
+            }
+            remember(known);
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
+            round.failed(e);
             log.warn(String.format("Failed to read ping data from Kubernetes [%s] for cluster: %s", client.info(), clusterName), e);
         }
-        return retval;
+        return new Membership(retval, complete);
+    }
+
+    private List<Container> sample(List<Container> targets, String likelyCoordinator, String seed) {
+        Map<String, Container> byKey = new LinkedHashMap<>();
+        for (Container container : targets) {
+            byKey.put(toKey(container), container);
+        }
+        List<Container> sampled = new ArrayList<>(byKey.size());
+        for (String key : PeerSample.order(byKey.keySet(), likelyCoordinator, seed)) {
+            sampled.add(byKey.get(key));
+        }
+        return sampled;
+    }
+
+    /**
+     * Wait for a fetch started by {@link Client#getPingDataAsync(String, int, long)}, up to the deadline.
+     */
+    private static PingData await(Future<PingData> pending, long deadline) throws Exception {
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                return pending.get();
+            }
+            return pending.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Ask the members remembered from the last complete round; in direct mode there is nothing to ask, they are used as is.
+     *
+     * @param clusterName the cluster name
+     * @param round the round to record the fetches in
+     * @param needCoordinator whether another member's coordinator answer is required
+     * @param deadline the round's deadline, in ms since the epoch
+     * @return the answers, or null if there were none, or no coordinator among them when required
+     */
+    private Membership recall(String clusterName, DiscoveryTimeline.Round round, boolean needCoordinator, long deadline) {
+        Map<String, PingData> peers = recalled;
+        if (peers.isEmpty()) {
+            return null;
+        }
+        if (isDirect()) {
+            return new Membership(new ArrayList<>(peers.values()), false);
+        }
+        Address localAddress = stack.getChannel().getAddress();
+        List<PingData> retval = new ArrayList<>();
+        boolean coordinator = false;
+        for (String key : peers.keySet()) {
+            if (System.currentTimeMillis() >= deadline) {
+                round.fetch(key, "cut-off", 0, 0);
+                continue;
+            }
+            int colon = key.lastIndexOf(':');
+            long fetchStart = System.nanoTime();
+            try {
+                // remembered peers may well be gone, don't retry them for long
+                PingData data = client.getPingData(key.substring(0, colon), Integer.parseInt(key.substring(colon + 1)), Math.min(deadline, System.currentTimeMillis() + getConnectTimeout()));
+                round.fetch(key, "recalled", (System.nanoTime() - fetchStart) / 1000000, 0);
+                retval.add(data);
+                if (data.isCoord() && data.getAddress() != null && data.getAddress().equals(localAddress) == false) {
+                    coordinator = true;
+                }
+            } catch (Exception e) {
+                round.fetch(key, "failed: " + e.getMessage(), (System.nanoTime() - fetchStart) / 1000000, 0);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Recalled member %s of cluster %s did not answer: %s", key, clusterName, e));
+                }
+            }
+        }
+        if (retval.isEmpty() || (needCoordinator && coordinator == false)) {
+            return null;
+        }
+        return new Membership(retval, false);
+    }
+
+    private void remember(Map<String, PingData> peers) {
+        if (store == null) {
+            return;
+        }
+        recalled = peers;
+        try {
+            store.save(peers);
+        } catch (IOException e) {
+            log.warn(String.format("Failed to save membership to %s", store.getFile()), e);
+        }
+    }
+
+    /**
+     * Get last complete discovery result.
+     *
+     * @return the membership, or null if there was no complete round yet
+     */
+    public Membership getMembership() {
+        return membership;
+    }
+
+    protected List<Pod> getPods(long deadline) throws Exception {
+        if (podCache != null) {
+            return podCache.getPods(getLabelsQuery(), deadline);
+        } else {
+            return client.getPods(getNamespace(), getLabelsQuery(), deadline);
+        }
+    }
+
+    private String getLocalNode(List<Pod> pods) {
+        String node = getNodeName();
+        if (node == null) {
+            // pod name is the hostname
+            String podName = System.getenv("HOSTNAME");
+            for (Pod pod : pods) {
+                if (podName != null && podName.equals(pod.getName())) {
+                    return pod.getHost();
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Should we fetch ping data from this pod at all.
+     *
+     * @param pod the pod
+     * @return true if the pod can answer
+     */
+    protected boolean acceptPod(Pod pod) {
+        if (pod.getPodIP() == null) {
+            return false;
+        }
+        if (isOnlyRunningPods() && pod.isRunning() == false) {
+            return false;
+        }
+        if (isOnlyReadyPods() && pod.isReady() == false) {
+            return false;
+        }
+        return (isSkipTerminatingPods() && pod.isTerminating()) == false;
+    }
+
+    /**
+     * Key a container by its pod IP and the port discovery talks to,
+     * the transport port in direct mode, the ping port otherwise.
+     */
+    private String toKey(Container container) {
+        return container.getPodIP() + ":" + container.getPort(getDiscoveryPortName()).getContainerPort();
     }
 
     @Override
@@ -208,12 +902,51 @@ public class KubePing extends FILE_PING {
         // empty on purpose to prevent dir from being created in the local file system
     }
 
+    @Override
+    public Object down(Event evt) {
+        Object result = super.down(evt);
+        if (evt.getType() == Event.VIEW_CHANGE && server != null) {
+            server.viewChanged((View) evt.getArg());
+        }
+        return result;
+    }
+
+    private void peerChanged(String peer, PingData data) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Peer %s changed: %s", peer, data));
+        }
+        Membership current = membership;
+        if (current != null && data.getAddress() != null) {
+            // lost updates are fine, the next round has it anyway
+            membership = current.update(data);
+        }
+    }
+
     @Override
     protected void writeToFile(PingData data, String clustername) {
+        if (getPingDataAnnotation() != null && isLocal(data.getAddress())) {
+            try {
+                client.annotatePod(getNamespace(), getPodName(), getPingDataAnnotation(), SlimPingData.toBase64(data));
+            } catch (Exception e) {
+                log.warn(String.format("Failed to publish ping data on pod %s for cluster: %s", getPodName(), clustername), e);
+            }
+        }
     }
 
     @Override
     protected void remove(String clustername, Address addr) {
+        // we can only tell our own pod
+        if (getPingDataAnnotation() != null && isLocal(addr)) {
+            try {
+                client.annotatePod(getNamespace(), getPodName(), getPingDataAnnotation(), null);
+            } catch (Exception e) {
+                log.warn(String.format("Failed to remove ping data from pod %s for cluster: %s", getPodName(), clustername), e);
+            }
+        }
+    }
+
+    private boolean isLocal(Address address) {
+        return address != null && address.equals(stack.getChannel().getAddress());
     }
 
     public String getLabelsQuery() {
@@ -232,6 +965,207 @@ public class KubePing extends FILE_PING {
         this.namespace = namespace;
     }
 
+    public boolean isBreakOnCoord() {
+        return breakOnCoord;
+    }
+
+    /**
+     * Stop reading ping data as soon as a coordinator answered.
+     * Only use it if partitions are not expected, as MERGE needs to see all coordinators.
+     *
+     * @param breakOnCoord break on coordinator response
+     */
+    public void setBreakOnCoord(boolean breakOnCoord) {
+        this.breakOnCoord = breakOnCoord;
+    }
+
+    public boolean isSharedPodCache() {
+        return sharedPodCache;
+    }
+
+    /**
+     * Share a single pod list per master and namespace with all KubePing instances in this JVM.
+     *
+     * @param sharedPodCache use shared pod cache
+     */
+    public void setSharedPodCache(boolean sharedPodCache) {
+        this.sharedPodCache = sharedPodCache;
+    }
+
+    public long getPodCacheRefreshInterval() {
+        return podCacheRefreshInterval;
+    }
+
+    public void setPodCacheRefreshInterval(long podCacheRefreshInterval) {
+        this.podCacheRefreshInterval = podCacheRefreshInterval;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * How long (in ms) the last membership can be returned as is, while refreshing it in the background.
+     *
+     * @param staleWhileRevalidate the stale-while-revalidate window, 0 disables it
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public double getMasterRequestRate() {
+        return masterRequestRate;
+    }
+
+    /**
+     * Max master requests per second, 0 for no limit.
+     *
+     * @param masterRequestRate the rate
+     */
+    public void setMasterRequestRate(double masterRequestRate) {
+        this.masterRequestRate = masterRequestRate;
+    }
+
+    public int getMasterRequestBurst() {
+        return masterRequestBurst;
+    }
+
+    public void setMasterRequestBurst(int masterRequestBurst) {
+        this.masterRequestBurst = masterRequestBurst;
+    }
+
+    public long getDiscoveryInitialDelay() {
+        return discoveryInitialDelay;
+    }
+
+    /**
+     * Max random delay (in ms) before the first discovery round.
+     *
+     * @param discoveryInitialDelay the max delay
+     */
+    public void setDiscoveryInitialDelay(long discoveryInitialDelay) {
+        this.discoveryInitialDelay = discoveryInitialDelay;
+    }
+
+    @ManagedAttribute(description = "Peers cut off by the discovery budget in the last round")
+    public String getCutOffPeers() {
+        return cutOffPeers.toString();
+    }
+
+    @ManagedAttribute(description = "Number of discovery rounds which ran out of budget")
+    public long getCutOffRounds() {
+        return cutOffRounds.get();
+    }
+
+    @ManagedAttribute(description = "Number of ping data responses reused, as they were not modified")
+    public long getPingDataNotModified() {
+        return (client != null) ? client.getNotModified() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of ping data requests turned away by overloaded peers")
+    public long getPingOverloaded() {
+        return (client != null) ? client.getPingOverloaded() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of pod lists which came from the master, as the pod agent failed")
+    public long getPodAgentFallbacks() {
+        return (client != null) ? client.getAgentFallbacks() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of ping requests this server turned away with 503")
+    public long getPingRequestsRejected() {
+        Server current = server;
+        return (current instanceof AbstractServer) ? ((AbstractServer) current).getRejected() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of hedged master requests")
+    public long getMasterRequestsHedged() {
+        return (client != null && client.getMasters() != null) ? client.getMasters().getHedged() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of master requests which failed over to another master")
+    public long getMasterFailovers() {
+        return (client != null && client.getMasters() != null) ? client.getMasters().getFailovers() : 0;
+    }
+
+    @ManagedAttribute(description = "Master requests per second, averaged over the last minute")
+    public double getMasterRequestsPerSecond() {
+        return (client != null) ? client.getRateLimiter().getRate() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of master requests")
+    public long getMasterRequests() {
+        return (client != null) ? client.getRateLimiter().getRequests() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of master requests which were held back by the rate limit")
+    public long getMasterRequestsThrottled() {
+        return (client != null) ? client.getRateLimiter().getThrottled() : 0;
+    }
+
+    public boolean isOnlyRunningPods() {
+        return onlyRunningPods;
+    }
+
+    public void setOnlyRunningPods(boolean onlyRunningPods) {
+        this.onlyRunningPods = onlyRunningPods;
+    }
+
+    public boolean isOnlyReadyPods() {
+        return onlyReadyPods;
+    }
+
+    /**
+     * Only fetch ping data from ready pods.
+     * Off by default, as readiness probes of clustered apps often depend on the cluster being formed.
+     *
+     * @param onlyReadyPods only ready pods
+     */
+    public void setOnlyReadyPods(boolean onlyReadyPods) {
+        this.onlyReadyPods = onlyReadyPods;
+    }
+
+    public boolean isSkipTerminatingPods() {
+        return skipTerminatingPods;
+    }
+
+    public void setSkipTerminatingPods(boolean skipTerminatingPods) {
+        this.skipTerminatingPods = skipTerminatingPods;
+    }
+
+    public String getPeerOrdering() {
+        return peerOrdering;
+    }
+
+    /**
+     * Order of contacting pods: none (as listed), same-node, same-zone or oldest.
+     *
+     * @param peerOrdering the ordering name
+     */
+    public void setPeerOrdering(String peerOrdering) {
+        this.peerOrdering = peerOrdering;
+    }
+
+    public String getZoneLabel() {
+        return zoneLabel;
+    }
+
+    public void setZoneLabel(String zoneLabel) {
+        this.zoneLabel = zoneLabel;
+    }
+
+    public String getNodeName() {
+        if (nodeName != null) {
+            return nodeName;
+        } else {
+            return trimToNull(System.getenv("KUBERNETES_NODE_NAME"));
+        }
+    }
+
+    public void setNodeName(String nodeName) {
+        this.nodeName = nodeName;
+    }
+
     public String getPingPortName() {
         return pingPortName;
     }
@@ -240,6 +1174,55 @@ public class KubePing extends FILE_PING {
         this.pingPortName = pingPortName;
     }
 
+    public String getTransportPortName() {
+        return transportPortName;
+    }
+
+    /**
+     * Name of the container port the transport listens on.
+     * If set, pod IP and this port are handed to discovery directly,
+     * without asking each pod for its ping data.
+     *
+     * @param transportPortName the transport port name
+     */
+    public void setTransportPortName(String transportPortName) {
+        this.transportPortName = transportPortName;
+    }
+
+    public String getPingDataAnnotation() {
+        return pingDataAnnotation;
+    }
+
+    /**
+     * Name of the annotation each member publishes its ping data in, on its own pod.
+     * If set, discovery reads all data from the pod list instead of asking each pod.
+     *
+     * @param pingDataAnnotation the annotation name
+     */
+    public void setPingDataAnnotation(String pingDataAnnotation) {
+        this.pingDataAnnotation = pingDataAnnotation;
+    }
+
+    public String getPodName() {
+        if (podName != null) {
+            return podName;
+        }
+        // pod name is the container hostname
+        return trimToNull(System.getenv("HOSTNAME"));
+    }
+
+    public void setPodName(String podName) {
+        this.podName = podName;
+    }
+
+    private boolean isDirect() {
+        return getTransportPortName() != null;
+    }
+
+    private String getDiscoveryPortName() {
+        return isDirect() ? getTransportPortName() : getPingPortName();
+    }
+
     public String getCertFile() {
         if (certFile != null) {
             return certFile;
@@ -300,6 +1283,268 @@ public class KubePing extends FILE_PING {
         this.caFile = caFile;
     }
 
+    public String getDnsNames() {
+        return trimToNull(dnsNames);
+    }
+
+    public void setDnsNames(String dnsNames) {
+        this.dnsNames = dnsNames;
+    }
+
+    public String getDnsServers() {
+        return trimToNull(dnsServers);
+    }
+
+    public void setDnsServers(String dnsServers) {
+        this.dnsServers = dnsServers;
+    }
+
+    public int getDnsTimeout() {
+        return dnsTimeout;
+    }
+
+    public void setDnsTimeout(int dnsTimeout) {
+        this.dnsTimeout = dnsTimeout;
+    }
+
+    public boolean isSlimPingData() {
+        return slimPingData;
+    }
+
+    public void setSlimPingData(boolean slimPingData) {
+        this.slimPingData = slimPingData;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * With several masters (comma separated host), a request which takes longer
+     * than this latency percentile of its master is also sent to the next one; 0 disables hedging.
+     *
+     * @param hedgePercentile the percentile
+     */
+    public void setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public int getDiagnosticRounds() {
+        return diagnosticRounds;
+    }
+
+    /**
+     * Number of last discovery rounds served as JSON on the ping server's /diagnostics path; 0 disables it.
+     *
+     * @param diagnosticRounds the number of rounds
+     */
+    public void setDiagnosticRounds(int diagnosticRounds) {
+        this.diagnosticRounds = diagnosticRounds;
+    }
+
+    public int getParallelPeerFetches() {
+        return parallelPeerFetches;
+    }
+
+    /**
+     * Ask all peers at once, on a non-blocking client with at most this many connections open,
+     * instead of one after the other; 0 keeps the sequential, blocking fetches.
+     *
+     * @param parallelPeerFetches max peer connections, 0 for sequential fetches
+     */
+    public void setParallelPeerFetches(int parallelPeerFetches) {
+        this.parallelPeerFetches = parallelPeerFetches;
+    }
+
+    public String getPodAgent() {
+        return trimToNull(podAgent);
+    }
+
+    /**
+     * List pods via a node local {@link org.jboss.kubeping.rest.PodAgent} instead of the master,
+     * e.g. http://$(HOST_IP):8889 with the node's address from the downward API;
+     * the master is only asked when the agent fails.
+     *
+     * @param podAgent the agent's URL, null to always ask the master
+     */
+    public void setPodAgent(String podAgent) {
+        this.podAgent = podAgent;
+    }
+
+    public String getPodAgentToken() {
+        return podAgentToken;
+    }
+
+    /**
+     * The token of a pod agent which only serves requests carrying it, as it listens on the node's address.
+     *
+     * @param podAgentToken the token, null if the agent asks for none
+     */
+    public void setPodAgentToken(String podAgentToken) {
+        this.podAgentToken = podAgentToken;
+    }
+
+    public int getDiscoverySample() {
+        return discoverySample;
+    }
+
+    /**
+     * Ask only the likely coordinator and a sample of this many peers, instead of every listed pod,
+     * widening the sample while no coordinator answers; keeps the cost of a join flat as the cluster grows.
+     * The sample takes the place of any peer ordering.
+     *
+     * @param discoverySample the sample size, 0 to ask all peers
+     */
+    public void setDiscoverySample(int discoverySample) {
+        this.discoverySample = discoverySample;
+    }
+
+    public long getLeaveGracePeriod() {
+        return leaveGracePeriod;
+    }
+
+    /**
+     * How long (in ms) a stopping node keeps answering pings with 410 Gone, so peers drop it at once
+     * instead of retrying a closed port; a preStop hook can start it earlier with a GET of /leave on the ping port.
+     *
+     * @param leaveGracePeriod the grace period in ms, 0 to stop right away
+     */
+    public void setLeaveGracePeriod(long leaveGracePeriod) {
+        this.leaveGracePeriod = leaveGracePeriod;
+    }
+
+    public String getLeaveToken() {
+        return leaveToken;
+    }
+
+    /**
+     * A GET of /leave is only accepted from loopback, e.g. an exec preStop hook running curl in the pod.
+     * With this token set, /leave?token=... is accepted from anywhere, e.g. from the kubelet running an httpGet hook.
+     *
+     * @param leaveToken the token, null to only accept loopback
+     */
+    public void setLeaveToken(String leaveToken) {
+        this.leaveToken = leaveToken;
+    }
+
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    /**
+     * Max ping requests handled at once by the ping server.
+     *
+     * @param serverThreads the number of threads
+     */
+    public void setServerThreads(int serverThreads) {
+        this.serverThreads = serverThreads;
+    }
+
+    public int getServerQueue() {
+        return serverQueue;
+    }
+
+    /**
+     * Max ping requests waiting for a ping server thread; any more are answered with 503 and Retry-After.
+     *
+     * @param serverQueue the queue size
+     */
+    public void setServerQueue(int serverQueue) {
+        this.serverQueue = serverQueue;
+    }
+
+    public boolean isProtobuf() {
+        return protobuf;
+    }
+
+    /**
+     * Ask the master for protobuf pod lists (v1 API); JSON answers are still understood.
+     *
+     * @param protobuf the protobuf flag
+     */
+    public void setProtobuf(boolean protobuf) {
+        this.protobuf = protobuf;
+    }
+
+    public String getMembershipFile() {
+        return membershipFile;
+    }
+
+    /**
+     * Local file to keep the last complete discovery result in;
+     * on restart, or when the master can't be reached, those members are asked first.
+     * Not used with pingDataAnnotation.
+     *
+     * @param membershipFile the file path
+     */
+    public void setMembershipFile(String membershipFile) {
+        this.membershipFile = membershipFile;
+    }
+
+    public int getWatchPeers() {
+        return watchPeers;
+    }
+
+    /**
+     * Number of peers, coordinators first, to keep long poll requests open against,
+     * so their changes reach the last known membership right away; 0 disables watching.
+     *
+     * @param watchPeers the number of peers
+     */
+    public void setWatchPeers(int watchPeers) {
+        this.watchPeers = watchPeers;
+    }
+
+    public long getWatchTimeout() {
+        return watchTimeout;
+    }
+
+    public void setWatchTimeout(long watchTimeout) {
+        this.watchTimeout = watchTimeout;
+    }
+
+    public long getDiscoveryTimeout() {
+        return discoveryTimeout;
+    }
+
+    /**
+     * Upper bound of a discovery round in ms, 0 for none.
+     * The initial delay, listing and ordering pods, and asking peers all count against it.
+     * Peers which are not reached in time are skipped, and the round returns what it has.
+     *
+     * @param discoveryTimeout the budget in ms
+     */
+    public void setDiscoveryTimeout(long discoveryTimeout) {
+        this.discoveryTimeout = discoveryTimeout;
+    }
+
+    private List<String> split(String s) {
+        List<String> list = new ArrayList<>();
+        for (String token : s.split(",")) {
+            token = token.trim();
+            if (token.length() > 0) {
+                list.add(token);
+            }
+        }
+        return list;
+    }
+
     private String trimToNull(String s) {
         if (s != null) {
             s = s.trim();
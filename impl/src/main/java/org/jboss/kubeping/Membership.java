@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jgroups.protocols.PingData;
+
+/**
+ * Immutable result of a discovery round.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class Membership {
+    private final List<PingData> data;
+    private final long timestamp;
+    private final boolean complete;
+    private final List<String> cutOff;
+
+    public Membership(List<PingData> data, boolean complete) {
+        this(data, complete, Collections.<String>emptyList());
+    }
+
+    public Membership(List<PingData> data, boolean complete, List<String> cutOff) {
+        this(data, System.currentTimeMillis(), complete, cutOff);
+    }
+
+    private Membership(List<PingData> data, long timestamp, boolean complete, List<String> cutOff) {
+        this.data = Collections.unmodifiableList(new ArrayList<>(data));
+        this.timestamp = timestamp;
+        this.complete = complete;
+        this.cutOff = Collections.unmodifiableList(new ArrayList<>(cutOff));
+    }
+
+    /**
+     * Replace (or add) one member's data; the rest, including the timestamp, stays as is.
+     *
+     * @param member the member's new data
+     * @return updated membership
+     */
+    public Membership update(PingData member) {
+        List<PingData> list = new ArrayList<>(data.size() + 1);
+        boolean found = false;
+        for (PingData current : data) {
+            if (found == false && member.getAddress().equals(current.getAddress())) {
+                list.add(member);
+                found = true;
+            } else {
+                list.add(current);
+            }
+        }
+        if (found == false) {
+            list.add(member);
+        }
+        return new Membership(list, timestamp, complete, cutOff);
+    }
+
+    public List<PingData> getData() {
+        return data;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Did the round finish without errors.
+     *
+     * @return true if complete, false otherwise
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Peers which were not asked, or did not answer, before the discovery budget ran out.
+     *
+     * @return cut off peers, as ip:port
+     */
+    public List<String> getCutOff() {
+        return cutOff;
+    }
+
+    public boolean isOlderThan(long age) {
+        return System.currentTimeMillis() - timestamp > age;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.kubeping.rest.SlimPingData;
+import org.jgroups.protocols.PingData;
+
+/**
+ * Last known membership, kept in a small local file, so a restarting node knows whom to ask
+ * even before, or without, the master answering.
+ *
+ * Entries are peer keys (ip:port) with their slim ping data.
+ * The file is read through a memory map, and replaced atomically on save.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MembershipStore {
+    private static final int MAGIC = 0x4b504d31; // KPM1
+
+    private final File file;
+    private byte[] saved;
+
+    public MembershipStore(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Load the last saved membership.
+     *
+     * @return peers' ping data by peer key, in saved order; empty if nothing was saved yet
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    public synchronized Map<String, PingData> load() throws IOException {
+        if (file.exists() == false) {
+            return Collections.emptyMap();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            Map<String, PingData> peers = read(bytes);
+            saved = bytes;
+            return peers;
+        }
+    }
+
+    /**
+     * Save the membership, unless it is the same as the one saved last.
+     *
+     * @param peers ping data by peer key
+     * @return true if the file was written, false if nothing changed
+     * @throws IOException if the file can't be written
+     */
+    public synchronized boolean save(Map<String, PingData> peers) throws IOException {
+        byte[] bytes = write(peers);
+        if (Arrays.equals(bytes, saved)) {
+            return false;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && parent.exists() == false && parent.mkdirs() == false) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(bytes.length);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes.length);
+            buffer.put(bytes);
+            buffer.force();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved = bytes;
+        return true;
+    }
+
+    private static byte[] write(Map<String, PingData> peers) throws IOException {
+        List<byte[]> keys = new ArrayList<>(peers.size());
+        List<byte[]> values = new ArrayList<>(peers.size());
+        int size = 8;
+        for (Map.Entry<String, PingData> peer : peers.entrySet()) {
+            byte[] key = peer.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value;
+            try {
+                value = SlimPingData.toBytes(peer.getValue());
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            keys.add(key);
+            values.add(value);
+            size += 8 + key.length + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            buffer.putInt(keys.get(i).length).put(keys.get(i));
+            buffer.putInt(values.get(i).length).put(values.get(i));
+        }
+        return buffer.array();
+    }
+
+    private Map<String, PingData> read(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a membership file: " + file);
+            }
+            int count = buffer.getInt();
+            Map<String, PingData> peers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = new String(next(buffer), StandardCharsets.UTF_8);
+                PingData data = SlimPingData.readFrom(new DataInputStream(new ByteArrayInputStream(next(buffer))));
+                peers.put(key, data);
+            }
+            return peers;
+        } catch (IOException e) {
+            throw e;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated membership file: " + file, e);
+        } catch (Exception e) {
+            throw new IOException("Corrupt membership file: " + file, e);
+        }
+    }
+
+    private static byte[] next(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
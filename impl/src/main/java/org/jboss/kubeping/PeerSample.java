@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which peers to ask when discovery samples the cluster, instead of asking every listed pod.
+ *
+ * The likely coordinator goes first, the rest are ranked by rendezvous hashing on a per-joiner seed:
+ * a joiner keeps asking the same peers round after round, while different joiners spread over the cluster.
+ * Peers are asked in waves, the first one holding the sample, each next one twice as large,
+ * until some wave turns up a coordinator.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class PeerSample {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private PeerSample() {
+    }
+
+    /**
+     * Order peers for sampling.
+     *
+     * @param keys the peers, as ip:port
+     * @param likelyCoordinator the peer most likely to be the coordinator, can be null
+     * @param seed the joiner's seed, e.g. its own address
+     * @return ordered peers
+     */
+    public static List<String> order(Collection<String> keys, String likelyCoordinator, String seed) {
+        final Map<String, Long> scores = new HashMap<>();
+        List<String> ordered = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (key.equals(likelyCoordinator) == false) {
+                scores.put(key, score(seed, key));
+                ordered.add(key);
+            }
+        }
+        Collections.sort(ordered, new Comparator<String>() {
+            public int compare(String k1, String k2) {
+                long s1 = scores.get(k1);
+                long s2 = scores.get(k2);
+                return (s1 < s2) ? -1 : ((s1 == s2) ? k1.compareTo(k2) : 1);
+            }
+        });
+        if (likelyCoordinator != null && ordered.size() < keys.size()) {
+            ordered.add(0, likelyCoordinator);
+        }
+        return ordered;
+    }
+
+    /**
+     * @param sample the sample size
+     * @param size number of peers
+     * @return number of peers in the first wave, the sample plus the likely coordinator
+     */
+    public static int firstWave(int sample, int size) {
+        return Math.min(size, sample + 1);
+    }
+
+    /**
+     * @param asked number of peers asked so far
+     * @param size number of peers
+     * @return number of peers to have asked after the next wave
+     */
+    public static int widen(int asked, int size) {
+        return Math.min(size, Math.max(asked + 1, asked * 2));
+    }
+
+    /**
+     * FNV-1a over seed and key, with a final avalanche, so similar addresses still land far apart.
+     */
+    static long score(String seed, String key) {
+        long h = FNV_OFFSET;
+        for (byte b : (seed + "/" + key).getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
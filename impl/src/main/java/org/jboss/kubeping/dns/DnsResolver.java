@@ -0,0 +1,536 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.dns;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal DNS resolver for SRV and A records.
+ *
+ * Answers are cached for as long as their TTL allows; records from the additional
+ * section (e.g. A records of SRV targets) are cached as well.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DnsResolver {
+    private static final Logger log = Logger.getLogger(DnsResolver.class.getName());
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_SRV = 33;
+    private static final int TYPE_OPT = 41;
+    private static final int CLASS_IN = 1;
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final int DEFAULT_PORT = 53;
+    private static final int UDP_PAYLOAD = 4096;
+
+    private final List<InetSocketAddress> servers;
+    private final int timeout;
+    private final ConcurrentMap<String, Answer> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger(new Random().nextInt());
+    private final ExecutorService executor;
+
+    public DnsResolver(List<InetSocketAddress> servers, int timeout) {
+        if (servers == null || servers.isEmpty()) {
+            throw new IllegalArgumentException("No DNS server configured.");
+        }
+        this.servers = new ArrayList<>(servers);
+        this.timeout = timeout;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "kubeping-dns-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Parse DNS servers.
+     *
+     * @param servers comma separated host[:port] list, or null to use /etc/resolv.conf
+     * @return server addresses
+     * @throws IOException for any I/O error
+     */
+    public static List<InetSocketAddress> parseServers(String servers) throws IOException {
+        List<InetSocketAddress> result = new ArrayList<>();
+        if (servers != null) {
+            for (String server : servers.split(",")) {
+                server = server.trim();
+                if (server.length() > 0) {
+                    result.add(toAddress(server));
+                }
+            }
+        } else {
+            File resolvConf = new File("/etc/resolv.conf");
+            if (resolvConf.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(resolvConf))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] split = line.trim().split("\\s+");
+                        if (split.length > 1 && "nameserver".equals(split[0])) {
+                            result.add(new InetSocketAddress(split[1], DEFAULT_PORT));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static InetSocketAddress toAddress(String server) {
+        String host = server;
+        int port = DEFAULT_PORT;
+        if (server.startsWith("[")) {
+            int p = server.indexOf(']');
+            host = server.substring(1, p);
+            if (server.length() > p + 2 && server.charAt(p + 1) == ':') {
+                port = Integer.parseInt(server.substring(p + 2));
+            }
+        } else {
+            int p = server.indexOf(':');
+            if (p > 0 && p == server.lastIndexOf(':')) {
+                host = server.substring(0, p);
+                port = Integer.parseInt(server.substring(p + 1));
+            }
+        }
+        return new InetSocketAddress(host, port);
+    }
+
+    public List<InetSocketAddress> getServers() {
+        return Collections.unmodifiableList(servers);
+    }
+
+    /**
+     * Stop the lookup threads; lookups of several names fail from now on.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<SrvRecord> lookupSrv(String name) throws IOException {
+        return (List<SrvRecord>) (List<?>) lookup(name, TYPE_SRV);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<InetAddress> lookupAddresses(String name) throws IOException {
+        return (List<InetAddress>) (List<?>) lookup(name, TYPE_A);
+    }
+
+    /**
+     * Lookup SRV records of all names in parallel.
+     *
+     * @param names the names
+     * @return records per name
+     * @throws IOException if any of the lookups failed
+     */
+    public Map<String, List<SrvRecord>> lookupSrv(Collection<String> names) throws IOException {
+        return lookupSrv(names, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lookup SRV records of all names in parallel, waiting for them no longer than the deadline.
+     *
+     * @param names the names
+     * @param deadline the deadline, in ms since the epoch
+     * @return records per name
+     * @throws IOException if any of the lookups failed, or did not finish in time
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<SrvRecord>> lookupSrv(Collection<String> names, long deadline) throws IOException {
+        return (Map<String, List<SrvRecord>>) (Map<String, ?>) lookupAll(names, TYPE_SRV, deadline);
+    }
+
+    /**
+     * Lookup A records of all names in parallel.
+     *
+     * @param names the names
+     * @return addresses per name
+     * @throws IOException if any of the lookups failed
+     */
+    public Map<String, List<InetAddress>> lookupAddresses(Collection<String> names) throws IOException {
+        return lookupAddresses(names, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lookup A records of all names in parallel, waiting for them no longer than the deadline.
+     *
+     * @param names the names
+     * @param deadline the deadline, in ms since the epoch
+     * @return addresses per name
+     * @throws IOException if any of the lookups failed, or did not finish in time
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<InetAddress>> lookupAddresses(Collection<String> names, long deadline) throws IOException {
+        return (Map<String, List<InetAddress>>) (Map<String, ?>) lookupAll(names, TYPE_A, deadline);
+    }
+
+    private Map<String, List<Object>> lookupAll(Collection<String> names, final int type, long deadline) throws IOException {
+        Map<String, Future<List<Object>>> futures = new LinkedHashMap<>();
+        try {
+            for (final String name : names) {
+                if (futures.containsKey(name)) {
+                    continue;
+                }
+                futures.put(name, executor.submit(new Callable<List<Object>>() {
+                    public List<Object> call() throws Exception {
+                        return lookup(name, type);
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            throw new IOException("DNS resolver closed.", e);
+        }
+        Map<String, List<Object>> result = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Future<List<Object>>> entry : futures.entrySet()) {
+                try {
+                    if (deadline == Long.MAX_VALUE) {
+                        result.put(entry.getKey(), entry.getValue().get());
+                    } else {
+                        result.put(entry.getKey(), entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while resolving " + entry.getKey());
+                } catch (TimeoutException e) {
+                    throw new SocketTimeoutException(String.format("Deadline passed while resolving %s.", entry.getKey()));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            if (result.size() < futures.size()) {
+                // nobody waits for the rest
+                for (Future<List<Object>> future : futures.values()) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Object> lookup(String name, int type) throws IOException {
+        name = normalize(name);
+        List<Object> cached = getCached(name, type);
+        if (cached != null) {
+            return cached;
+        }
+
+        long now = System.currentTimeMillis();
+        Response response = query(name, type);
+
+        Answer answer = new Answer();
+        for (Record record : response.answers) {
+            if (record.type == type && record.data != null) {
+                answer.add(record);
+            }
+        }
+        // additional section usually carries target addresses of SRV records
+        Map<String, Answer> additionals = new LinkedHashMap<>();
+        for (Record record : response.additionals) {
+            if (record.type == TYPE_A && record.data != null) {
+                String key = key(record.name, record.type);
+                Answer additional = additionals.get(key);
+                if (additional == null) {
+                    additional = new Answer();
+                    additionals.put(key, additional);
+                }
+                additional.add(record);
+            }
+        }
+        for (Map.Entry<String, Answer> entry : additionals.entrySet()) {
+            cache(entry.getKey(), entry.getValue(), now);
+        }
+        cache(key(name, type), answer, now);
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Resolved %s [%s]: %s (ttl=%s)", name, type, answer.records, answer.ttl));
+        }
+        return Collections.unmodifiableList(answer.records);
+    }
+
+    private List<Object> getCached(String name, int type) {
+        String key = key(name, type);
+        Answer answer = cache.get(key);
+        if (answer != null) {
+            if (answer.expires > System.currentTimeMillis()) {
+                return Collections.unmodifiableList(answer.records);
+            }
+            cache.remove(key, answer);
+        }
+        return null;
+    }
+
+    private void cache(String key, Answer answer, long now) {
+        if (answer.records.isEmpty() == false && answer.ttl > 0) {
+            answer.expires = now + answer.ttl * 1000L;
+            cache.put(key, answer);
+        }
+    }
+
+    private static String key(String name, int type) {
+        return type + ":" + name;
+    }
+
+    private static String normalize(String name) {
+        name = name.trim().toLowerCase(Locale.ENGLISH);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+    private Response query(String name, int type) throws IOException {
+        int id = ids.incrementAndGet() & 0xFFFF;
+        byte[] request = encodeQuery(id, name, type);
+        IOException last = null;
+        for (InetSocketAddress server : servers) {
+            try {
+                Response response = queryUdp(server, id, request);
+                if (response.truncated) {
+                    response = queryTcp(server, request);
+                }
+                if (response.rcode == 0 || response.rcode == RCODE_NXDOMAIN) {
+                    return response;
+                }
+                last = new IOException(String.format("DNS server %s failed to resolve %s, rcode=%s", server, name, response.rcode));
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private Response queryUdp(InetSocketAddress server, int id, byte[] request) throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(timeout);
+            socket.send(new DatagramPacket(request, request.length, server));
+            byte[] buffer = new byte[UDP_PAYLOAD];
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                Response response = Response.parse(packet.getData(), packet.getLength());
+                if (response.id == id) {
+                    return response;
+                }
+            }
+        }
+    }
+
+    private Response queryTcp(InetSocketAddress server, byte[] request) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeout);
+            socket.setSoTimeout(timeout);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(request.length);
+            out.write(request);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] buffer = new byte[in.readUnsignedShort()];
+            in.readFully(buffer);
+            return Response.parse(buffer, buffer.length);
+        }
+    }
+
+    private static byte[] encodeQuery(int id, String name, int type) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeShort(id);
+        out.writeShort(0x0100); // recursion desired
+        out.writeShort(1); // questions
+        out.writeShort(0); // answers
+        out.writeShort(0); // authorities
+        out.writeShort(1); // additionals, EDNS0
+        for (String label : name.split("\\.")) {
+            if (label.length() > 0) {
+                byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                out.writeByte(bytes.length);
+                out.write(bytes);
+            }
+        }
+        out.writeByte(0);
+        out.writeShort(type);
+        out.writeShort(CLASS_IN);
+        // OPT pseudo record, so bigger SRV responses fit into a single datagram
+        out.writeByte(0);
+        out.writeShort(TYPE_OPT);
+        out.writeShort(UDP_PAYLOAD);
+        out.writeInt(0);
+        out.writeShort(0);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static class Response {
+        private int id;
+        private int rcode;
+        private boolean truncated;
+        private final List<Record> answers = new ArrayList<>();
+        private final List<Record> additionals = new ArrayList<>();
+
+        private static Response parse(byte[] data, int length) throws IOException {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                Response response = new Response();
+                response.id = buffer.getShort() & 0xFFFF;
+                int flags = buffer.getShort() & 0xFFFF;
+                response.truncated = (flags & 0x0200) != 0;
+                response.rcode = flags & 0x000F;
+                if (response.truncated) {
+                    return response;
+                }
+                int questions = buffer.getShort() & 0xFFFF;
+                int answers = buffer.getShort() & 0xFFFF;
+                int authorities = buffer.getShort() & 0xFFFF;
+                int additionals = buffer.getShort() & 0xFFFF;
+                for (int i = 0; i < questions; i++) {
+                    readName(buffer);
+                    buffer.position(buffer.position() + 4);
+                }
+                for (int i = 0; i < answers; i++) {
+                    response.answers.add(readRecord(buffer));
+                }
+                for (int i = 0; i < authorities; i++) {
+                    readRecord(buffer);
+                }
+                for (int i = 0; i < additionals; i++) {
+                    response.additionals.add(readRecord(buffer));
+                }
+                return response;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Malformed DNS response.", e);
+            }
+        }
+
+        private static Record readRecord(ByteBuffer buffer) throws IOException {
+            Record record = new Record();
+            record.name = readName(buffer);
+            record.type = buffer.getShort() & 0xFFFF;
+            int clazz = buffer.getShort() & 0xFFFF;
+            record.ttl = buffer.getInt() & 0xFFFFFFFFL;
+            int length = buffer.getShort() & 0xFFFF;
+            int end = buffer.position() + length;
+            if (clazz == CLASS_IN) {
+                if (record.type == TYPE_A && length == 4) {
+                    byte[] address = new byte[4];
+                    buffer.get(address);
+                    record.data = InetAddress.getByAddress(address);
+                } else if (record.type == TYPE_SRV) {
+                    int priority = buffer.getShort() & 0xFFFF;
+                    int weight = buffer.getShort() & 0xFFFF;
+                    int port = buffer.getShort() & 0xFFFF;
+                    record.data = new SrvRecord(priority, weight, port, readName(buffer));
+                }
+            }
+            buffer.position(end);
+            return record;
+        }
+
+        private static String readName(ByteBuffer buffer) throws IOException {
+            StringBuilder builder = new StringBuilder();
+            int resume = -1;
+            int jumps = 0;
+            int length;
+            while ((length = buffer.get() & 0xFF) != 0) {
+                if ((length & 0xC0) == 0xC0) {
+                    int offset = ((length & 0x3F) << 8) | (buffer.get() & 0xFF);
+                    if (++jumps > 64) {
+                        throw new IOException("Too many DNS name compression pointers.");
+                    }
+                    if (resume < 0) {
+                        resume = buffer.position();
+                    }
+                    buffer.position(offset);
+                } else {
+                    byte[] label = new byte[length];
+                    buffer.get(label);
+                    if (builder.length() > 0) {
+                        builder.append('.');
+                    }
+                    builder.append(new String(label, StandardCharsets.US_ASCII));
+                }
+            }
+            if (resume >= 0) {
+                buffer.position(resume);
+            }
+            return builder.toString().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private static class Record {
+        private String name;
+        private int type;
+        private long ttl;
+        private Object data;
+    }
+
+    private static class Answer {
+        private final List<Object> records = new ArrayList<>();
+        private long ttl = Long.MAX_VALUE;
+        private volatile long expires;
+
+        private void add(Record record) {
+            records.add(record.data);
+            ttl = Math.min(ttl, record.ttl);
+        }
+    }
+}
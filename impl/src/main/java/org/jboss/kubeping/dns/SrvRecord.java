@@ -0,0 +1,55 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.dns;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SrvRecord {
+    private final int priority;
+    private final int weight;
+    private final int port;
+    private final String target;
+
+    public SrvRecord(int priority, int weight, int port, String target) {
+        this.priority = priority;
+        this.weight = weight;
+        this.port = port;
+        this.target = target;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s %s", priority, weight, port, target);
+    }
+}
@@ -16,17 +16,430 @@
 
 package org.jboss.kubeping.rest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.jgroups.Channel;
+import org.jgroups.View;
+import org.jgroups.protocols.PingData;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public abstract class AbstractServer implements Server {
+    public static final String WATCH_PATH = "/watch";
+    public static final String DIAGNOSTICS_PATH = "/diagnostics";
+    public static final String LEAVE_PATH = "/leave";
+    public static final int LEAVING = 410;
+
+    private static final long DEFAULT_WATCH_TIMEOUT = 30000;
+    private static final long MAX_WATCH_TIMEOUT = 120000;
+    private static final long RECHECK_INTERVAL = 1000;
+    private static final String RETRY_AFTER = "1";
+    private static final int REJECT_QUEUE = 1024;
+    private static final long REJECT_TIMEOUT = 1000;
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
     protected final int port;
     protected final Channel channel;
 
+    private final Object changes = new Object();
+    private final AtomicInteger watchers = new AtomicInteger();
+    private volatile long version;
+    private volatile View view;
+    private volatile boolean stopping;
+    private volatile DiscoveryTimeline timeline;
+    private int threads = 16;
+    private int queued = 64;
+    private Semaphore admission;
+    private ThreadPoolExecutor pool;
+    private ThreadPoolExecutor rejecter;
+    private ScheduledThreadPoolExecutor rejectTimer;
+    private final AtomicLong rejected = new AtomicLong();
+    private long leaveGracePeriod;
+    private volatile String leaveToken;
+    private volatile long leaving;
+
     protected AbstractServer(int port, Channel channel) {
         this.port = port;
         this.channel = channel;
     }
+
+    public void start() throws Exception {
+        stopping = false;
+        leaving = 0;
+        admission = new Semaphore(threads + queued);
+        doStart();
+    }
+
+    public void stop() {
+        leave();
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (changes) {
+            stopping = true;
+            changes.notifyAll();
+        }
+        doStop();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        if (rejecter != null) {
+            rejecter.shutdownNow();
+            rejectTimer.shutdownNow();
+            rejecter = null;
+            rejectTimer = null;
+        }
+    }
+
+    protected abstract void doStart() throws Exception;
+
+    protected abstract void doStop();
+
+    public void viewChanged(View view) {
+        synchronized (changes) {
+            this.view = view;
+            version++;
+            changes.notifyAll();
+        }
+    }
+
+    public void setTimeline(DiscoveryTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    public void setLeaveGracePeriod(long leaveGracePeriod) {
+        this.leaveGracePeriod = leaveGracePeriod;
+    }
+
+    public void setLeaveToken(String leaveToken) {
+        this.leaveToken = leaveToken;
+    }
+
+    public void leave() {
+        synchronized (changes) {
+            if (leaving == 0) {
+                leaving = System.currentTimeMillis();
+                changes.notifyAll();
+            }
+        }
+    }
+
+    public boolean isLeaving() {
+        return leaving != 0;
+    }
+
+    /**
+     * Wait for what is left of the grace period since we started leaving,
+     * so peers still discovering get told, instead of retrying a closed port.
+     */
+    private void drain() throws InterruptedException {
+        long remaining = leaving + leaveGracePeriod - System.currentTimeMillis();
+        if (leaving != 0 && remaining > 0) {
+            Thread.sleep(remaining);
+        }
+    }
+
+    public void setLimits(int threads, int queued) {
+        this.threads = Math.max(1, threads);
+        this.queued = Math.max(0, queued);
+    }
+
+    /**
+     * @return number of requests turned away with 503
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Executor for servers which hand each exchange to an executor.
+     *
+     * At most threads exchanges run at once, and at most queued more wait for a thread.
+     * The rest go to a single reject thread, only to answer 503, so neither threads nor memory grow
+     * when every node asks at once. Reading the request happens in the task, so it never runs
+     * on the dispatcher thread, and a reject taking longer than a second is interrupted,
+     * which closes its connection; a client sending half a request can't hold the reject thread either.
+     * If even the reject queue is full, the exchange is dropped unanswered.
+     *
+     * @return the executor
+     */
+    protected Executor createExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("kubeping-ping-"));
+        executor.allowCoreThreadTimeOut(true);
+        pool = executor;
+        final ThreadPoolExecutor rejects = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(REJECT_QUEUE), new NamedThreadFactory("kubeping-reject-"));
+        rejects.allowCoreThreadTimeOut(true);
+        rejecter = rejects;
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("kubeping-reject-timer-"));
+        timer.setRemoveOnCancelPolicy(true);
+        rejectTimer = timer;
+        return new Executor() {
+            public void execute(final Runnable task) {
+                if (admit()) {
+                    try {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                try {
+                                    task.run();
+                                } finally {
+                                    release();
+                                }
+                            }
+                        });
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        release();
+                    }
+                }
+                try {
+                    rejects.execute(new Runnable() {
+                        public void run() {
+                            runRejected(task, timer);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Run an exchange which only gets 503, interrupting it if the client is too slow;
+     * interrupting a thread blocked on a socket channel closes the channel.
+     */
+    private static void runRejected(Runnable task, ScheduledThreadPoolExecutor timer) {
+        final Thread worker = Thread.currentThread();
+        final boolean[] done = new boolean[1];
+        Future<?> timeout = timer.schedule(new Runnable() {
+            public void run() {
+                synchronized (done) {
+                    if (done[0] == false) {
+                        worker.interrupt();
+                    }
+                }
+            }
+        }, REJECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        REJECTED.set(Boolean.TRUE);
+        try {
+            task.run();
+        } finally {
+            REJECTED.remove();
+            synchronized (done) {
+                done[0] = true;
+            }
+            timeout.cancel(false);
+            // don't leave an interrupt for the next exchange
+            Thread.interrupted();
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Take a slot for an exchange, for servers which don't use createExecutor.
+     *
+     * @return true if admitted, false if the exchange should be answered with 503
+     */
+    protected boolean admit() {
+        return admission.tryAcquire();
+    }
+
+    protected void release() {
+        admission.release();
+    }
+
+    /**
+     * Count a request turned away.
+     *
+     * @return the Retry-After value to send with 503
+     */
+    protected String reject() {
+        rejected.incrementAndGet();
+        return RETRY_AFTER;
+    }
+
+    /**
+     * The view is passed down the stack before the channel gets it,
+     * so we prefer the one we were told about, if it is newer.
+     */
+    private PingData createPingData() {
+        View current = channel.getView();
+        View latest = view;
+        if (latest != null && (current == null || latest.getViewId().compareTo(current.getViewId()) > 0)) {
+            current = latest;
+        }
+        return Utils.createPingData(channel, current);
+    }
+
+    /**
+     * Handle ping request, the same way for all server implementations.
+     *
+     * @param exchange the exchange
+     * @throws Exception for any error
+     */
+    protected void handle(Exchange exchange) throws Exception {
+        if (REJECTED.get() != null) {
+            exchange.setResponseHeader("Retry-After", reject());
+            exchange.send(503, new byte[0]);
+            return;
+        }
+        boolean slim = "slim".equals(getQueryParameter(exchange, "format"));
+        if (LEAVE_PATH.equals(exchange.getPath())) {
+            if (mayLeave(exchange) == false) {
+                exchange.send(403, new byte[0]);
+                return;
+            }
+            // e.g. a preStop hook; answered once drained, so the pod is not killed before that
+            leave();
+            drain();
+            exchange.send(200, new byte[0]);
+        } else if (isLeaving() && DIAGNOSTICS_PATH.equals(exchange.getPath()) == false) {
+            exchange.send(LEAVING, new byte[0]);
+        } else if (WATCH_PATH.equals(exchange.getPath())) {
+            watch(exchange, slim);
+        } else if (DIAGNOSTICS_PATH.equals(exchange.getPath())) {
+            DiscoveryTimeline current = timeline;
+            if (current != null) {
+                exchange.setResponseHeader("Content-Type", "application/json");
+                exchange.send(200, current.toModelNode().toJSONString(false).getBytes(StandardCharsets.UTF_8));
+            } else {
+                exchange.send(404, new byte[0]);
+            }
+        } else {
+            PingData data = createPingData();
+            send(exchange, data, slim, Utils.createETag(data, slim));
+        }
+    }
+
+    /**
+     * Leaving can't be undone, so only the pod itself may ask for it: from loopback, or with the leave token.
+     */
+    private boolean mayLeave(Exchange exchange) {
+        InetAddress address = exchange.getRemoteAddress();
+        if (address != null && address.isLoopbackAddress()) {
+            return true;
+        }
+        String token = leaveToken;
+        String given = getQueryParameter(exchange, "token");
+        return token != null && given != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Long poll: hold the request until our ping data no longer matches
+     * the If-None-Match tag, or the timeout expires with 304.
+     */
+    private void watch(Exchange exchange, boolean slim) throws Exception {
+        String known = exchange.getRequestHeader("If-None-Match");
+        long timeout = DEFAULT_WATCH_TIMEOUT;
+        String value = getQueryParameter(exchange, "timeout");
+        if (value != null) {
+            try {
+                timeout = Math.max(0, Math.min(MAX_WATCH_TIMEOUT, Long.parseLong(value)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (watchers.incrementAndGet() > Math.max(1, threads / 2)) {
+            // too many held requests, keep threads for plain pings
+            timeout = 0;
+        }
+        try {
+            final long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                long seen = version;
+                PingData data = createPingData();
+                String etag = Utils.createETag(data, slim);
+                long remaining = deadline - System.currentTimeMillis();
+                if (isLeaving()) {
+                    exchange.send(LEAVING, new byte[0]);
+                    return;
+                }
+                if (matches(known, etag) == false || remaining <= 0 || stopping) {
+                    send(exchange, data, slim, etag);
+                    return;
+                }
+                synchronized (changes) {
+                    if (seen == version && stopping == false && leaving == 0) {
+                        // recheck now and then, the physical address changes without telling us
+                        changes.wait(Math.min(remaining, RECHECK_INTERVAL));
+                    }
+                }
+            }
+        } finally {
+            watchers.decrementAndGet();
+        }
+    }
+
+    private void send(Exchange exchange, PingData data, boolean slim, String etag) throws Exception {
+        exchange.setResponseHeader("ETag", etag);
+        if (matches(exchange.getRequestHeader("If-None-Match"), etag)) {
+            exchange.send(304, new byte[0]);
+        } else if (slim) {
+            exchange.setResponseHeader("Content-Type", SlimPingData.CONTENT_TYPE);
+            exchange.send(200, SlimPingData.toBytes(data));
+        } else {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            data.writeTo(out);
+            out.flush();
+            exchange.send(200, baos.toByteArray());
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals(etag) || tag.equals("*")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected static String getQueryParameter(Exchange exchange, String name) {
+        String query = exchange.getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int p = pair.indexOf('=');
+                if (p > 0 && name.equals(pair.substring(0, p))) {
+                    return pair.substring(p + 1);
+                }
+            }
+        }
+        return null;
+    }
 }
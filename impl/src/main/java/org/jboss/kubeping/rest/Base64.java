@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Standard (RFC 4648) base64, padded; JAXB's DatatypeConverter is gone since JDK 11.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class Base64 {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64() {
+    }
+
+    public static String encode(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length) {
+                n |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                n |= bytes[i + 2] & 0xff;
+            }
+            builder.append(ALPHABET[(n >> 18) & 0x3f]).append(ALPHABET[(n >> 12) & 0x3f]);
+            builder.append(i + 1 < bytes.length ? ALPHABET[(n >> 6) & 0x3f] : '=');
+            builder.append(i + 2 < bytes.length ? ALPHABET[n & 0x3f] : '=');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decode, skipping whitespace; padding is optional.
+     *
+     * @param value the base64 text
+     * @return the bytes
+     * @throws IllegalArgumentException for invalid input
+     */
+    public static byte[] decode(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length() * 3 / 4);
+        int n = 0;
+        int bits = 0;
+        boolean padding = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '=') {
+                padding = true;
+                continue;
+            }
+            int v = (c < VALUES.length) ? VALUES[c] : -1;
+            if (v < 0 || padding) {
+                throw new IllegalArgumentException(String.format("Invalid base64 character '%s' at %s.", c, i));
+            }
+            n = (n << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out.write((n >> bits) & 0xff);
+            }
+        }
+        if (bits >= 6) {
+            throw new IllegalArgumentException("Truncated base64 value.");
+        }
+        return out.toByteArray();
+    }
+}
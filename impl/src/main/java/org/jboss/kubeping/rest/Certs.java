@@ -50,8 +50,10 @@ public class Certs {
     private static final Logger log = Logger.getLogger(Certs.class.getName());
 
     private final SSLSocketFactory factory;
+    private final String identity;
 
     public Certs(String clientCertFile, String clientKeyFile, String clientKeyPassword, String clientKeyAlgo, String caCertFile) throws Exception {
+        identity = String.format("cert=%s, key=%s, ca=%s", clientCertFile, clientKeyFile, caCertFile);
         // defaults - RSA and empty password
         char[] password = (clientKeyPassword != null) ? clientKeyPassword.toCharArray() : new char[0];
         String algorithm = (clientKeyAlgo != null) ? clientKeyAlgo : "RSA";
@@ -63,7 +65,22 @@ public class Certs {
         factory = context.getSocketFactory();
     }
 
+    /**
+     * @return which certificate, key and CA files these are
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    public SSLSocketFactory getSocketFactory() {
+        return factory;
+    }
+
     public InputStream openStream(String url) throws Exception {
+        return openConnection(url).getInputStream();
+    }
+
+    public URLConnection openConnection(String url) throws Exception {
         URL requestedUrl = new URL(url);
         URLConnection connection = requestedUrl.openConnection();
         if (connection instanceof HttpsURLConnection) {
@@ -76,7 +93,7 @@ public class Certs {
                 log.fine(String.format("Using URLConnection for url [%s].", url));
             }
         }
-        return connection.getInputStream();
+        return connection;
     }
 
     private InputStream getInputStreamFromFile(String file) throws FileNotFoundException {
@@ -16,51 +16,260 @@
 
 package org.jboss.kubeping.rest;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
 import org.jgroups.protocols.PingData;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class Client {
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long MAX_RETRY_AFTER = 60000;
+    private static final int PATCH_TIMEOUT = 30000;
+    private static final int MAX_TAGGED = 1024;
+    private static final Map<String, String> ACCEPT_PROTOBUF = Collections.singletonMap("Accept", ProtobufPods.CONTENT_TYPE + ", application/json");
+
     private String rootURL;
+    private List<String> rootURLs;
+    private Masters masters;
+    private String version;
     private Certs certs;
+    private RateLimiter limiter = new RateLimiter(0, 1);
+    private boolean slimPingData = true;
+    private boolean protobuf;
+    private int connectTimeout = 5000;
+    private int readTimeout = 5000;
+    private int maxPeerConnections = 64;
+    private String agentURL;
+    private String agentToken;
+    private NioHttpClient nio;
+    private final Random random = new Random();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong pingRetries = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong agentFallbacks = new AtomicLong();
+    // last tagged ping data per peer, least recently used ones are dropped
+    private final Map<String, Tagged> tagged = new LinkedHashMap<String, Tagged>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tagged> eldest) {
+            return size() > MAX_TAGGED;
+        }
+    };
 
     protected Client() {
     }
 
+    /**
+     * @param host the master host, or a comma separated list of host[:port] master endpoints
+     * @param port the (default) master port
+     * @param version the API version
+     * @param certs the certs, null for plain http
+     * @throws MalformedURLException for invalid URL
+     */
     public Client(String host, String port, String version, Certs certs) throws MalformedURLException {
         final String protocol = (certs != null) ? "https" : "http";
-        this.rootURL = String.format("%s://%s:%s/api/%s", protocol, host, port, version);
+        List<String> rootURLs = new ArrayList<>();
+        for (String endpoint : host.split(",")) {
+            endpoint = endpoint.trim();
+            if (endpoint.length() > 0) {
+                String address = (endpoint.indexOf(':') < 0) ? endpoint + ":" + port : endpoint;
+                rootURLs.add(String.format("%s://%s/api/%s", protocol, address, version));
+            }
+        }
+        this.rootURL = rootURLs.get(0);
+        this.rootURLs = rootURLs;
+        if (rootURLs.size() > 1) {
+            this.masters = new Masters(rootURLs);
+        }
+        this.version = version;
         this.certs = certs;
     }
 
-    private InputStream openStream(String url, int tries, long sleep) {
+    /**
+     * @return master endpoints, or null if there is a single master
+     */
+    public Masters getMasters() {
+        return masters;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Set socket timeouts, 0 means no timeout.
+     *
+     * @param connectTimeout the connect timeout in ms
+     * @param readTimeout the read timeout in ms
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * List pods via a node local {@link PodAgent} first, and only go to the master(s) if the agent fails.
+     *
+     * @param agentURL the agent's URL, e.g. http://127.0.0.1:8889, null to always ask the master(s)
+     */
+    public void setAgentURL(String agentURL) {
+        this.agentURL = agentURL;
+    }
+
+    /**
+     * @param agentToken the bearer token the agent asks for, null if none
+     */
+    public void setAgentToken(String agentToken) {
+        this.agentToken = agentToken;
+    }
+
+    /**
+     * Limit the connections the non-blocking client has open to peers at once.
+     *
+     * @param maxPeerConnections max peer connections
+     */
+    public synchronized void setMaxPeerConnections(int maxPeerConnections) {
+        this.maxPeerConnections = maxPeerConnections;
+    }
+
+    /**
+     * Ask ping servers for slim PingData, without the full view.
+     * Older servers ignore the request and still send full PingData.
+     *
+     * @param slimPingData the slim flag
+     */
+    public void setSlimPingData(boolean slimPingData) {
+        this.slimPingData = slimPingData;
+    }
+
+    /**
+     * Ask the master for protobuf pod lists, which are much cheaper to decode than JSON.
+     * Masters without protobuf support answer with JSON, which is still understood.
+     *
+     * @param protobuf the protobuf flag
+     */
+    public void setProtobuf(boolean protobuf) {
+        this.protobuf = protobuf;
+    }
+
+    /**
+     * Set master requests limiter.
+     *
+     * @param limiter the limiter
+     */
+    public void setRateLimiter(RateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    private InputStream openStream(String url, int tries, long sleep, boolean master) throws IOException {
+        return connect(url, tries, sleep, master).getInputStream();
+    }
+
+    private URLConnection connect(String url, int tries, long sleep, boolean master) {
+        return connect(url, tries, sleep, master, Long.MAX_VALUE, null, readTimeout);
+    }
+
+    /**
+     * Open connection, retrying until its response is available, or the deadline passes.
+     */
+    private URLConnection connect(String url, int tries, long sleep, boolean master, long deadline, Map<String, String> headers, int readTimeout) {
         final int attempts = tries;
         Throwable lastFail = null;
         while (tries > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                lastFail = new SocketTimeoutException(String.format("Deadline passed after %s attempt(s).", attempts - tries));
+                break;
+            }
+            if (tries < attempts && master == false) {
+                pingRetries.incrementAndGet();
+            }
             tries--;
+            long delay = Math.min(jitter(sleep), remaining);
             try {
-                if (certs != null) {
-                    return certs.openStream(url);
-                } else {
-                    URL xurl = new URL(url);
-                    return xurl.openStream();
+                if (master && limiter.acquire(deadline) == false) {
+                    lastFail = new SocketTimeoutException("Deadline would pass waiting for a master request permit.");
+                    break;
                 }
+                URLConnection connection = openConnection(url);
+                connection.setConnectTimeout(timeout(connectTimeout, remaining));
+                connection.setReadTimeout(timeout(readTimeout, remaining));
+                if (headers != null) {
+                    for (Map.Entry<String, String> header : headers.entrySet()) {
+                        connection.setRequestProperty(header.getKey(), header.getValue());
+                    }
+                }
+                if (connection instanceof HttpURLConnection) {
+                    HttpURLConnection http = (HttpURLConnection) connection;
+                    int status = http.getResponseCode();
+                    if (status == AbstractServer.LEAVING && master == false) {
+                        http.disconnect();
+                        throw new PeerLeavingException(url);
+                    }
+                    if (status == TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                        delay = getRetryAfter(http, delay);
+                        http.disconnect();
+                        if (master) {
+                            limiter.pause(delay);
+                        } else {
+                            // an overloaded peer, come back soon, but not all at once
+                            overloaded.incrementAndGet();
+                            delay = jitter(delay);
+                        }
+                        delay = Math.min(delay, remaining);
+                        throw new IOException(String.format("%s, retry after %s ms.", status == TOO_MANY_REQUESTS ? "Too many requests" : "Service unavailable", delay));
+                    }
+                }
+                connection.getInputStream();
+                return connection;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (PeerLeavingException e) {
+                throw e;
             } catch (Throwable fail) {
                 lastFail = fail;
             }
             try {
-                Thread.sleep(sleep);
+                Thread.sleep(delay);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new RuntimeException(e);
@@ -73,27 +282,164 @@ public class Client {
         throw (lastFail != null) ? new IllegalStateException(emsg, lastFail) : new IllegalStateException(emsg);
     }
 
+    /**
+     * Timeout bounded by the remaining time; 0 would mean no timeout at all.
+     */
+    private static int timeout(int timeout, long remaining) {
+        if (remaining > Integer.MAX_VALUE) {
+            return timeout;
+        }
+        return (int) Math.max(1, (timeout > 0) ? Math.min(timeout, remaining) : remaining);
+    }
+
+    private URLConnection openConnection(String url) throws Exception {
+        if (certs != null) {
+            return certs.openConnection(url);
+        } else {
+            return new URL(url).openConnection();
+        }
+    }
+
+    /**
+     * Spread retries of many pods over time, instead of all of them retrying at once.
+     */
+    private long jitter(long sleep) {
+        return sleep / 2 + (long) (random.nextDouble() * sleep);
+    }
+
+    private static long getRetryAfter(HttpURLConnection connection, long defaultDelay) {
+        return getRetryAfter(connection.getHeaderField("Retry-After"), defaultDelay);
+    }
+
+    private static long getRetryAfter(String retryAfter, long defaultDelay) {
+        if (retryAfter != null) {
+            retryAfter = retryAfter.trim();
+            try {
+                return Math.min(MAX_RETRY_AFTER, Long.parseLong(retryAfter) * 1000);
+            } catch (NumberFormatException e) {
+                try {
+                    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                    Date date = format.parse(retryAfter);
+                    return Math.max(0, Math.min(MAX_RETRY_AFTER, date.getTime() - System.currentTimeMillis()));
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        return defaultDelay;
+    }
+
+    public String getRootURL() {
+        return rootURL;
+    }
+
+    /**
+     * Everything which decides where and how pods are listed: masters, API version, credentials,
+     * protobuf, agent and rate limit. Clients with the same key may share a pod list.
+     *
+     * @return the configuration key
+     */
+    public String getConfigKey() {
+        return String.format("%s|%s|%s|protobuf=%s|agent=%s|%s", (rootURLs != null) ? rootURLs : getRootURL(), version,
+            (certs != null) ? certs.getIdentity() : "no certs", protobuf, agentURL, limiter);
+    }
+
     public String info() {
-        return "Kubernetes master URL: " + rootURL;
+        return (masters != null) ? "Kubernetes master URLs: " + masters : "Kubernetes master URL: " + rootURL;
     }
 
     protected ModelNode getNode(String op) throws IOException {
-        return getNode(op, null, null);
+        return getNode(op, null, null, 60, Long.MAX_VALUE);
     }
 
-    protected ModelNode getNode(String op, String namespace, String labelsQuery) throws IOException {
-        String url = rootURL + "/" + op;
+    /**
+     * Get node, retrying up to the given number of times, while the deadline allows.
+     *
+     * @param op the operation
+     * @param namespace the namespace, or null
+     * @param labelsQuery the labels query, or null
+     * @param tries the number of attempts
+     * @param deadline the deadline, in ms since the epoch
+     * @return the node
+     * @throws IOException for any I/O error
+     */
+    protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, final long deadline) throws IOException {
+        final String path = getPath(op, namespace, labelsQuery);
+        if (masters != null) {
+            return getFromMasters(path, new Masters.Request<ModelNode>() {
+                public ModelNode execute(String root) throws Exception {
+                    try (InputStream stream = connect(root + path, 1, 0, true, deadline, null, readTimeout).getInputStream()) {
+                        return ModelNode.fromJSONStream(stream);
+                    }
+                }
+            }, tries, deadline);
+        }
+        try (InputStream stream = connect(rootURL + path, tries, 1000, true, deadline, null, readTimeout).getInputStream()) {
+            return ModelNode.fromJSONStream(stream);
+        }
+    }
+
+    /**
+     * The beta APIs, as spoken here, take the namespace and labels as query parameters;
+     * v1 scopes namespaced resources by path, and selects them with labelSelector.
+     */
+    private boolean isBeta() {
+        return version == null || version.startsWith("v1beta");
+    }
+
+    private String getPath(String op, String namespace, String labelsQuery) throws IOException {
+        if (isBeta()) {
+            return getQueryPath(op, namespace, labelsQuery);
+        }
+        String path = "/" + op;
+        if (namespace != null && namespace.length() > 0) {
+            path = "/namespaces/" + URLEncoder.encode(namespace, "UTF-8") + path;
+        }
+        if (labelsQuery != null && labelsQuery.length() > 0) {
+            path += "?labelSelector=" + URLEncoder.encode(labelsQuery, "UTF-8");
+        }
+        return path;
+    }
+
+    private static String getQueryPath(String op, String namespace, String labelsQuery) throws IOException {
+        String path = "/" + op;
         boolean queryNotEmpty = false;
         if (labelsQuery != null && labelsQuery.length() > 0) {
-            url += "?labels=" + URLEncoder.encode(labelsQuery, "UTF-8");
+            path += "?labels=" + URLEncoder.encode(labelsQuery, "UTF-8");
             queryNotEmpty = true;
         }
         if (namespace != null && namespace.length() > 0) {
-            url += (queryNotEmpty?"&":"?") + "namespace=" +  URLEncoder.encode(namespace, "UTF-8");
+            path += (queryNotEmpty?"&":"?") + "namespace=" +  URLEncoder.encode(namespace, "UTF-8");
         }
-        try (InputStream stream = openStream(url, 60, 1000)) {
-            return ModelNode.fromJSONStream(stream);
+        return path;
+    }
+
+    /**
+     * Get from one of several masters, hedging slow requests, retrying while the deadline allows.
+     */
+    private <T> T getFromMasters(String path, Masters.Request<T> request, int tries, long deadline) throws IOException {
+        Exception lastFail = null;
+        int attempts = 0;
+        while (attempts < tries && System.currentTimeMillis() < deadline) {
+            attempts++;
+            try {
+                return masters.execute(request, true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (Exception e) {
+                lastFail = e;
+            }
+            if (attempts == tries) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.max(0, Math.min(jitter(1000), deadline - System.currentTimeMillis())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
         }
+        throw new IOException(String.format("%s attempt(s) to get [%s] from masters %s failed.", attempts, path, masters), lastFail);
     }
 
     public List<Pod> getPods() throws IOException {
@@ -101,43 +447,159 @@ public class Client {
     }
 
     public List<Pod> getPods(String namespace, String labelsQuery) throws IOException {
-        ModelNode root = getNode("pods", namespace, labelsQuery);
+        return getPods(namespace, labelsQuery, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get pods, retrying failed list calls while the deadline allows.
+     *
+     * @param namespace the namespace, or null
+     * @param labelsQuery the labels query, or null
+     * @param deadline the deadline, in ms since the epoch
+     * @return the pods
+     * @throws IOException for any I/O error
+     */
+    public List<Pod> getPods(String namespace, String labelsQuery, long deadline) throws IOException {
+        if (agentURL != null) {
+            try {
+                return getAgentPods(namespace, labelsQuery, deadline);
+            } catch (IOException | RuntimeException e) {
+                // a malformed list fails in DMR or protobuf parsing, the master still knows
+                agentFallbacks.incrementAndGet();
+            }
+        }
+        if (protobuf) {
+            return getProtobufPods(getPath("pods", namespace, labelsQuery), deadline);
+        }
+        return readPods(getNode("pods", namespace, labelsQuery, 60, deadline));
+    }
+
+    private List<Pod> getProtobufPods(final String path, final long deadline) throws IOException {
+        if (masters != null) {
+            return getFromMasters(path, new Masters.Request<List<Pod>>() {
+                public List<Pod> execute(String root) throws Exception {
+                    return readPods(connect(root + path, 1, 0, true, deadline, ACCEPT_PROTOBUF, readTimeout));
+                }
+            }, 60, deadline);
+        }
+        return readPods(connect(rootURL + path, 60, 1000, true, deadline, ACCEPT_PROTOBUF, readTimeout));
+    }
+
+    /**
+     * The agent serves the namespace's whole list, labels are matched here, as with the {@link PodCache}.
+     */
+    private List<Pod> getAgentPods(String namespace, String labelsQuery, long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Deadline passed before asking the pod agent.");
+        }
+        // the agent's own path, whatever the master's API version
+        URLConnection connection = new URL(agentURL + getQueryPath("pods", namespace, null)).openConnection();
+        connection.setConnectTimeout(timeout(connectTimeout, remaining));
+        connection.setReadTimeout(timeout(readTimeout, remaining));
+        if (agentToken != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + agentToken);
+        }
+        LabelSelector selector = LabelSelector.parse(labelsQuery);
+        List<Pod> pods = new ArrayList<>();
+        for (Pod pod : readPods(connection)) {
+            if (selector.matches(pod.getLabels())) {
+                pods.add(pod);
+            }
+        }
+        return pods;
+    }
+
+    /**
+     * Get the namespace's whole pod list as the master sent it, protobuf if enabled, else JSON;
+     * a {@link PodAgent} serves it on as is.
+     *
+     * @param namespace the namespace
+     * @return the raw pod list
+     * @throws IOException for any I/O error
+     */
+    public RawPods getRawPods(String namespace) throws IOException {
+        final String path = getPath("pods", namespace, null);
+        final Map<String, String> headers = protobuf ? ACCEPT_PROTOBUF : null;
+        if (masters != null) {
+            return getFromMasters(path, new Masters.Request<RawPods>() {
+                public RawPods execute(String root) throws Exception {
+                    return readRawPods(connect(root + path, 1, 0, true, Long.MAX_VALUE, headers, readTimeout));
+                }
+            }, 60, Long.MAX_VALUE);
+        }
+        return readRawPods(connect(rootURL + path, 60, 1000, true, Long.MAX_VALUE, headers, readTimeout));
+    }
+
+    private static RawPods readRawPods(URLConnection connection) throws IOException {
+        try (InputStream stream = connection.getInputStream()) {
+            return new RawPods(connection.getContentType(), readBytes(connection, stream));
+        }
+    }
+
+    private static byte[] readBytes(URLConnection connection, InputStream stream) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 1024));
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = stream.read(buffer)) != -1) {
+            baos.write(buffer, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    private List<Pod> readPods(URLConnection connection) throws IOException {
+        try (InputStream stream = connection.getInputStream()) {
+            if (ProtobufPods.isProtobuf(connection.getContentType())) {
+                return ProtobufPods.readPodList(readBytes(connection, stream));
+            }
+            return readPods(ModelNode.fromJSONStream(stream));
+        }
+    }
+
+    private static List<Pod> readPods(ModelNode root) {
         List<Pod> pods = new ArrayList<>();
         List<ModelNode> items = root.get("items").asList();
         for (ModelNode item : items) {
             Pod pod = new Pod();
+            pod.setName(getName(item));
+
+            // v1beta1 keeps them in currentState and desiredState, v1 in status and spec
+            ModelNode host = item.has("currentState") ? find(item, "currentState", "host") : find(item, "spec", "nodeName");
+            pod.setHost(host.isDefined() ? host.asString() : null);
+            ModelNode podIP = item.has("currentState") ? find(item, "currentState", "podIP") : find(item, "status", "podIP");
+            pod.setPodIP(podIP.isDefined() ? podIP.asString() : null);
 
-            ModelNode currentState = item.get("currentState");
-            ModelNode host = currentState.get("host");
-            pod.setHost(host.asString());
-            ModelNode podIP = currentState.get("podIP");
-            pod.setPodIP(podIP.asString());
+            readStatus(item, pod);
 
-            ModelNode desiredState = item.get("desiredState");
-            ModelNode manifest = desiredState.get("manifest");
+            pod.setLabels(getLabels(item));
+            pod.setAnnotations(getMap(item, "annotations"));
 
-            ModelNode ctns = manifest.get("containers");
+            ModelNode creationTimestamp = item.has("metadata") ? find(item, "metadata", "creationTimestamp") : find(item, "creationTimestamp");
+            if (creationTimestamp.isDefined()) {
+                pod.setCreationTimestamp(parseTimestamp(creationTimestamp.asString()));
+            }
+
+            ModelNode ctns = item.has("desiredState") ? find(item, "desiredState", "manifest", "containers") : find(item, "spec", "containers");
             if (ctns.isDefined() == false) continue;
 
             List<ModelNode> containers = ctns.asList();
             for (ModelNode c : containers) {
-                Container container = new Container(pod.getHost(), pod.getPodIP());
                 String cname = c.get("name").asString();
-                container.setName(cname);
 
                 ModelNode pts = c.get("ports");
                 if (pts.isDefined() == false) continue;
 
                 List<ModelNode> ports = pts.asList();
+                List<Port> cports = new ArrayList<>(ports.size());
                 for (ModelNode p : ports) {
                     String pname = p.get("name").asString();
                     Port port = new Port(pname,
                             p.get("hostPort").isDefined() ? p.get("hostPort").asInt() : null,
                             p.get("containerPort").isDefined() ? p.get("containerPort").asInt() : null);
-                    container.addPort(port);
+                    cports.add(port);
                 }
 
-                pod.addContainer(container);
+                pod.addContainer(new Container(cname, pod.getHost(), pod.getPodIP(), cports));
             }
 
             pods.add(pod);
@@ -145,26 +607,462 @@ public class Client {
         return pods;
     }
 
-    public boolean accept(Context context) {
-        Container container = context.getContainer();
-        List<Port> ports = container.getPorts();
-        if (ports != null) {
-            String pingPortName = context.getPingPortName();
-            for (Port port : ports) {
-                if (pingPortName.equalsIgnoreCase(port.getName())) {
-                    return true;
+    /**
+     * Set or remove an annotation on a pod, with a JSON merge patch.
+     *
+     * @param namespace the namespace
+     * @param podName the pod name
+     * @param annotation the annotation name
+     * @param value the value, null to remove the annotation
+     * @throws IOException for any I/O error
+     */
+    public void annotatePod(String namespace, String podName, String annotation, String value) throws IOException {
+        final String path;
+        if (namespace == null || namespace.length() == 0) {
+            path = "/pods/" + URLEncoder.encode(podName, "UTF-8");
+        } else if (isBeta()) {
+            path = "/pods/" + URLEncoder.encode(podName, "UTF-8") + "?namespace=" + URLEncoder.encode(namespace, "UTF-8");
+        } else {
+            path = "/namespaces/" + URLEncoder.encode(namespace, "UTF-8") + "/pods/" + URLEncoder.encode(podName, "UTF-8");
+        }
+        ModelNode patch = new ModelNode();
+        // annotations moved to metadata with v1beta3
+        boolean topLevel = "v1beta1".equals(version) || "v1beta2".equals(version);
+        // left undefined, the value is written as null, which removes the annotation
+        ModelNode entry = (topLevel ? patch : patch.get("metadata")).get("annotations").get(annotation);
+        if (value != null) {
+            entry.set(value);
+        }
+        final byte[] body = patch.toJSONString(true).getBytes(StandardCharsets.UTF_8);
+        if (masters == null) {
+            patch(rootURL + path, body);
+            return;
+        }
+        try {
+            // not hedged, only failover
+            masters.execute(new Masters.Request<Void>() {
+                public Void execute(String root) throws Exception {
+                    patch(root + path, body);
+                    return null;
+                }
+            }, false);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * HttpURLConnection refuses PATCH, so we speak plain HTTP/1.1 over a socket.
+     */
+    private void patch(String url, byte[] body) throws IOException {
+        try {
+            if (limiter.acquire(System.currentTimeMillis() + PATCH_TIMEOUT) == false) {
+                throw new SocketTimeoutException(String.format("PATCH [%s] would wait longer than %s ms for a master request permit.", url, PATCH_TIMEOUT));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        URL target = new URL(url);
+        int port = (target.getPort() != -1) ? target.getPort() : target.getDefaultPort();
+        Socket socket;
+        if ("https".equals(target.getProtocol())) {
+            SSLSocketFactory factory = (certs != null) ? certs.getSocketFactory() : (SSLSocketFactory) SSLSocketFactory.getDefault();
+            SSLSocket sslSocket = (SSLSocket) factory.createSocket(target.getHost(), port);
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(parameters);
+            socket = sslSocket;
+        } else {
+            socket = new Socket(target.getHost(), port);
+        }
+        try {
+            socket.setSoTimeout(PATCH_TIMEOUT);
+            String file = target.getFile().length() > 0 ? target.getFile() : "/";
+            String head = "PATCH " + file + " HTTP/1.1\r\n" +
+                "Host: " + target.getHost() + ":" + port + "\r\n" +
+                "Content-Type: application/merge-patch+json\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String statusLine = reader.readLine();
+            String[] parts = (statusLine != null) ? statusLine.split(" ") : new String[0];
+            if (parts.length < 2) {
+                throw new IOException(String.format("PATCH [%s] got invalid response: %s", url, statusLine));
+            }
+            int status = Integer.parseInt(parts[1]);
+            if (status == TOO_MANY_REQUESTS) {
+                String retryAfter = null;
+                String line;
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    if (line.regionMatches(true, 0, "Retry-After:", 0, 12)) {
+                        retryAfter = line.substring(12);
+                    }
+                }
+                limiter.pause(getRetryAfter(retryAfter, 1000));
+            }
+            if (status / 100 != 2) {
+                throw new IOException(String.format("PATCH [%s] failed with status %s.", url, status));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Get labels of all nodes.
+     *
+     * @return labels per node name
+     * @throws IOException for any I/O error
+     */
+    public Map<String, Map<String, String>> getNodeLabels() throws IOException {
+        return getNodeLabels(Long.MAX_VALUE);
+    }
+
+    /**
+     * Get labels of all nodes, with a single attempt, as they only help ordering.
+     *
+     * @param deadline the deadline, in ms since the epoch
+     * @return labels per node name
+     * @throws IOException for any I/O error
+     */
+    public Map<String, Map<String, String>> getNodeLabels(long deadline) throws IOException {
+        // nodes used to be called minions
+        boolean minions = "v1beta1".equals(version) || "v1beta2".equals(version);
+        ModelNode root = getNode(minions ? "minions" : "nodes", null, null, 1, deadline);
+        Map<String, Map<String, String>> nodes = new HashMap<>();
+        ModelNode items = root.get("items");
+        if (items.isDefined()) {
+            for (ModelNode item : items.asList()) {
+                nodes.put(getName(item), getLabels(item));
+            }
+        }
+        return nodes;
+    }
+
+    private static String getName(ModelNode item) {
+        ModelNode name = item.has("metadata") ? find(item, "metadata", "name") : find(item, "id");
+        return name.isDefined() ? name.asString() : null;
+    }
+
+    private static Map<String, String> getLabels(ModelNode item) {
+        return getMap(item, "labels");
+    }
+
+    private static Map<String, String> getMap(ModelNode item, String key) {
+        Map<String, String> result = new HashMap<>();
+        ModelNode map = item.has("metadata") ? find(item, "metadata", key) : find(item, key);
+        if (map.isDefined()) {
+            for (Property entry : map.asPropertyList()) {
+                result.put(entry.getName(), entry.getValue().asString());
+            }
+        }
+        return result;
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.parse(timestamp).getTime();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static void readStatus(ModelNode item, Pod pod) {
+        // v1beta1 keeps it in currentState, later versions in status and metadata
+        ModelNode phase = find(item, "status", "phase");
+        if (phase.isDefined() == false) {
+            phase = find(item, "currentState", "status");
+        }
+        if (phase.isDefined()) {
+            pod.setPhase(phase.asString());
+        }
+
+        ModelNode conditions = find(item, "status", "conditions");
+        if (conditions.isDefined() == false) {
+            conditions = find(item, "currentState", "conditions");
+        }
+        if (conditions.isDefined()) {
+            for (ModelNode condition : conditions.asList()) {
+                ModelNode type = condition.has("type") ? condition.get("type") : find(condition, "kind");
+                if (type.isDefined() && "Ready".equals(type.asString())) {
+                    String status = find(condition, "status").asString();
+                    pod.setReady("True".equalsIgnoreCase(status) || "Full".equalsIgnoreCase(status));
                 }
             }
         }
-        return false;
+
+        ModelNode deletionTimestamp = find(item, "metadata", "deletionTimestamp");
+        if (deletionTimestamp.isDefined()) {
+            pod.setDeletionTimestamp(deletionTimestamp.asString());
+        }
+    }
+
+    /**
+     * Unlike get, this doesn't add missing nodes to the tree.
+     */
+    private static ModelNode find(ModelNode node, String... path) {
+        for (String name : path) {
+            if (node.has(name) == false) {
+                return new ModelNode();
+            }
+            node = node.get(name);
+        }
+        return node;
+    }
+
+    public boolean accept(Context context) {
+        return accept(context.getContainer(), context.getPingPortName());
+    }
+
+    /**
+     * Does the container expose the ping port.
+     *
+     * @param container the container
+     * @param pingPortName the ping port name
+     * @return true if the container should be pinged
+     */
+    public boolean accept(Container container, String pingPortName) {
+        return container.findPort(pingPortName) != null;
     }
 
     public PingData getPingData(String host, int port) throws Exception {
-        String url = String.format("http://%s:%s", host, port);
-        PingData data = new PingData();
-        try (InputStream is = openStream(url, 100, 500)) {
-            data.readFrom(new DataInputStream(is));
+        return getPingData(host, port, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get ping data, giving up once the deadline passes.
+     *
+     * @param host the host
+     * @param port the port
+     * @param deadline the deadline, in ms since the epoch
+     * @return ping data
+     * @throws Exception for any error
+     */
+    public PingData getPingData(String host, int port, long deadline) throws Exception {
+        String url = String.format("http://%s:%s%s", host, port, slimPingData ? "/?format=slim" : "");
+        return getPingData(url, 100, deadline, readTimeout);
+    }
+
+    /**
+     * Wait for peer's ping data to change from what we got last time.
+     *
+     * @param host the host
+     * @param port the port
+     * @param timeout how long the peer should hold the request, in ms
+     * @return new ping data, or the previous one if nothing changed before the timeout
+     * @throws Exception for any error
+     */
+    public PingData watchPingData(String host, int port, long timeout) throws Exception {
+        String url = String.format("http://%s:%s%s?timeout=%s%s", host, port, AbstractServer.WATCH_PATH, timeout, slimPingData ? "&format=slim" : "");
+        // the peer holds the request for the timeout, so the read timeout can't be shorter
+        int holdTimeout = (int) Math.min(Integer.MAX_VALUE, timeout + Math.max(readTimeout, 1000));
+        return getPingData(url, 1, System.currentTimeMillis() + holdTimeout, holdTimeout);
+    }
+
+    private PingData getPingData(String url, int tries, long deadline, int readTimeout) throws Exception {
+        Tagged previous = getTagged(url);
+        Map<String, String> headers = (previous != null) ? Collections.singletonMap("If-None-Match", previous.etag) : null;
+        URLConnection connection = connect(url, tries, 500, false, deadline, headers, readTimeout);
+        try (InputStream is = connection.getInputStream()) {
+            boolean unchanged = previous != null && connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+            return readPingData(url, previous, unchanged, connection.getContentType(), connection.getHeaderField("ETag"), is);
+        }
+    }
+
+    /**
+     * Get ping data without blocking; many of these can be in flight at once,
+     * with connects, reads and retry delays all handled by a single IO thread.
+     *
+     * Retries, conditional requests and leaving peers are handled as in {@link #getPingData(String, int, long)},
+     * the future's get throws an ExecutionException wrapping what that method would throw.
+     *
+     * @param host the host
+     * @param port the port
+     * @param deadline the deadline, in ms since the epoch
+     * @return pending ping data
+     * @throws IOException if the non-blocking client can't be started
+     */
+    public Future<PingData> getPingDataAsync(String host, int port, long deadline) throws IOException {
+        String target = slimPingData ? "/?format=slim" : "";
+        String url = String.format("http://%s:%s%s", host, port, target);
+        Tagged previous = getTagged(url);
+        Map<String, String> headers = (previous != null) ? Collections.singletonMap("If-None-Match", previous.etag) : null;
+        NioHttpClient.Call call = getNioClient().get(host, port, target.isEmpty() ? "/" : target, headers, 100, 500, deadline);
+        return new PendingPingData(url, previous, call);
+    }
+
+    private synchronized NioHttpClient getNioClient() throws IOException {
+        if (nio == null) {
+            nio = new NioHttpClient(connectTimeout, readTimeout, maxPeerConnections, new NioHttpClient.Listener() {
+                public long retrying(NioHttpClient.Call call, int status, String retryAfter, long delay) {
+                    pingRetries.incrementAndGet();
+                    if (status == TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                        // an overloaded peer, come back soon, but not all at once
+                        overloaded.incrementAndGet();
+                        return jitter(getRetryAfter(retryAfter, delay));
+                    }
+                    return delay;
+                }
+            });
+        }
+        return nio;
+    }
+
+    /**
+     * Stop the non-blocking client, failing its pending calls; it is started again on demand.
+     */
+    public synchronized void close() {
+        if (nio != null) {
+            nio.close();
+            nio = null;
+        }
+    }
+
+    private Tagged getTagged(String url) {
+        synchronized (tagged) {
+            return tagged.get(url);
+        }
+    }
+
+    private PingData readPingData(String url, Tagged previous, boolean unchanged, String contentType, String etag, InputStream is) throws Exception {
+        if (unchanged) {
+            notModified.incrementAndGet();
+            return previous.data;
+        }
+        DataInputStream dis = new DataInputStream(is);
+        PingData data;
+        if (SlimPingData.CONTENT_TYPE.equals(contentType)) {
+            data = SlimPingData.readFrom(dis);
+        } else {
+            data = new PingData();
+            data.readFrom(dis);
+        }
+        synchronized (tagged) {
+            if (etag != null) {
+                tagged.put(url, new Tagged(etag, data));
+            } else {
+                tagged.remove(url);
+            }
         }
         return data;
     }
+
+    /**
+     * @return number of ping data responses reused, as the peer said they were not modified
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * @return number of ping data requests which were retried
+     */
+    public long getPingRetries() {
+        return pingRetries.get();
+    }
+
+    /**
+     * @return number of ping data requests turned away by an overloaded peer
+     */
+    public long getPingOverloaded() {
+        return overloaded.get();
+    }
+
+    /**
+     * @return number of pod lists which had to come from the master(s), as the agent failed
+     */
+    public long getAgentFallbacks() {
+        return agentFallbacks.get();
+    }
+
+    /**
+     * A pod list, as sent by the master.
+     */
+    public static class RawPods {
+        private final String contentType;
+        private final byte[] body;
+
+        public RawPods(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    private class PendingPingData implements Future<PingData> {
+        private final String url;
+        private final Tagged previous;
+        private final NioHttpClient.Call call;
+        private PingData data;
+
+        private PendingPingData(String url, Tagged previous, NioHttpClient.Call call) {
+            this.url = url;
+            this.previous = previous;
+            this.call = call;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return call.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return call.isCancelled();
+        }
+
+        public boolean isDone() {
+            return call.isDone();
+        }
+
+        public PingData get() throws InterruptedException, ExecutionException {
+            return read(call.get());
+        }
+
+        public PingData get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return read(call.get(timeout, unit));
+        }
+
+        // decoded by the caller, keeping the IO thread free
+        private synchronized PingData read(NioHttpClient.Response response) throws ExecutionException {
+            if (data == null) {
+                if (response.getStatus() == AbstractServer.LEAVING) {
+                    throw new ExecutionException(new PeerLeavingException(url));
+                }
+                boolean unchanged = previous != null && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED;
+                try {
+                    data = readPingData(url, previous, unchanged, response.getHeader("Content-Type"), response.getHeader("ETag"), new ByteArrayInputStream(response.getBody()));
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            return data;
+        }
+    }
+
+    private static class Tagged {
+        private final String etag;
+        private final PingData data;
+
+        private Tagged(String etag, PingData data) {
+            this.etag = etag;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Helpers for the compact pod model.
+ *
+ * Host names, port names, phases and label maps repeat across many pods,
+ * so each distinct value is kept once; entries go away once no pod uses them.
+ * IPv4 addresses are kept as an int.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+final class Compact {
+    private static final Map<Object, WeakReference<Object>> values = new WeakHashMap<>();
+
+    private Compact() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T canonical(T value) {
+        synchronized (values) {
+            WeakReference<Object> ref = values.get(value);
+            Object existing = (ref != null) ? ref.get() : null;
+            if (existing != null) {
+                return (T) existing;
+            }
+            values.put(value, new WeakReference<Object>(value));
+            return value;
+        }
+    }
+
+    static String intern(String value) {
+        return (value != null) ? canonical(value) : null;
+    }
+
+    static Map<String, String> intern(Map<String, String> map) {
+        if (map == null || map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> copy = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            copy.put(intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return canonical(Collections.unmodifiableMap(copy));
+    }
+
+    /**
+     * @return the IPv4 address as int, or 0 if it isn't a dotted IPv4 address
+     */
+    static int toInt(String ip) {
+        if (ip == null) {
+            return 0;
+        }
+        int result = 0;
+        int octet = -1;
+        int octets = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return 0;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return 0;
+            }
+        }
+        if (octet < 0 || octets != 3) {
+            return 0;
+        }
+        return (result << 8) | octet;
+    }
+
+    static String toString(int ip) {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+}
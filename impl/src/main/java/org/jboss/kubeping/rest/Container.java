@@ -16,57 +16,79 @@
 
 package org.jboss.kubeping.rest;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class Container {
-    private String name;
-    private String host;
-    private String podIP;
-    private List<Port> ports = new ArrayList<>();
+    private static final Port[] NO_PORTS = new Port[0];
 
-    public Container(String host, String podIP) {
-        this.host = host;
-        this.podIP = podIP;
+    private final String name;
+    private final String host;
+    private final int ip;
+    private final String podIP; // only if not IPv4
+    private final Port[] ports; // sorted by name
+
+    public Container(String name, String host, String podIP, List<Port> ports) {
+        this.name = Compact.intern(name);
+        this.host = Compact.intern(host);
+        this.ip = Compact.toInt(podIP);
+        this.podIP = (ip == 0) ? podIP : null;
+        if (ports == null || ports.isEmpty()) {
+            this.ports = NO_PORTS;
+        } else {
+            this.ports = ports.toArray(new Port[ports.size()]);
+            Arrays.sort(this.ports);
+        }
     }
 
     public String getName() {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
-    void addPort(Port port) {
-        ports.add(port);
-    }
-
     public String getHost() {
         return host;
     }
 
     public List<Port> getPorts() {
-        return ports;
+        return Collections.unmodifiableList(Arrays.asList(ports));
     }
 
     public String getPodIP() {
-        return podIP;
+        return (ip != 0) ? Compact.toString(ip) : podIP;
     }
 
-    public void setPodIP(String podIP) {
-        this.podIP = podIP;
+    /**
+     * Find port by name.
+     *
+     * @param name the port name
+     * @return the port, or null if there is no such port
+     */
+    public Port findPort(String name) {
+        int low = 0;
+        int high = ports.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Port.compare(ports[mid].getName(), name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return ports[mid];
+            }
+        }
+        return null;
     }
 
     public Port getPort(String name) {
-        for (Port port : ports) {
-            if (name.equals(port.getName())) {
-                return port;
-            }
+        Port port = findPort(name);
+        if (port == null) {
+            throw new IllegalArgumentException("No such port: " + name);
         }
-        throw new IllegalArgumentException("No such port: " + name);
+        return port;
     }
 }
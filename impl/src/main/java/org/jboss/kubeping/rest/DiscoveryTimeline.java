@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Ring buffer of the last discovery rounds, for diagnosing slow joins.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DiscoveryTimeline {
+    private final Round[] rounds;
+    private int next;
+    private long count;
+
+    public DiscoveryTimeline(int capacity) {
+        this.rounds = new Round[Math.max(1, capacity)];
+    }
+
+    public synchronized void add(Round round) {
+        rounds[next] = round;
+        next = (next + 1) % rounds.length;
+        count++;
+    }
+
+    /**
+     * @return rounds, the most recent first
+     */
+    public synchronized List<Round> getRounds() {
+        List<Round> result = new ArrayList<>();
+        for (int i = 1; i <= rounds.length; i++) {
+            Round round = rounds[(next - i + rounds.length) % rounds.length];
+            if (round != null) {
+                result.add(round);
+            }
+        }
+        return result;
+    }
+
+    public ModelNode toModelNode() {
+        ModelNode root = new ModelNode();
+        synchronized (this) {
+            root.get("rounds-total").set(count);
+        }
+        ModelNode list = root.get("rounds").setEmptyList();
+        for (Round round : getRounds()) {
+            list.add(round.toModelNode());
+        }
+        return root;
+    }
+
+    /**
+     * One discovery round; filled in by the discovering thread, then added to the timeline.
+     */
+    public static class Round {
+        private final String clusterName;
+        private final long start = System.currentTimeMillis();
+        private final long started = System.nanoTime();
+        private long podListTime = -1;
+        private int pods = -1;
+        private final List<Fetch> fetches = new ArrayList<>();
+        private long totalTime;
+        private int members;
+        private boolean complete;
+        private String failure;
+
+        public Round(String clusterName) {
+            this.clusterName = clusterName;
+        }
+
+        public void podList(long time, int size) {
+            this.podListTime = time;
+            this.pods = size;
+        }
+
+        public void fetch(String peer, String outcome, long latency, long retries) {
+            fetches.add(new Fetch(peer, outcome, latency, retries));
+        }
+
+        public void failed(Exception e) {
+            this.failure = e.getClass().getName() + ": " + e.getMessage();
+        }
+
+        public void finish(int members, boolean complete) {
+            this.totalTime = (System.nanoTime() - started) / 1000000;
+            this.members = members;
+            this.complete = complete;
+        }
+
+        ModelNode toModelNode() {
+            ModelNode node = new ModelNode();
+            node.get("cluster").set(clusterName);
+            node.get("start").set(start);
+            node.get("total-ms").set(totalTime);
+            node.get("complete").set(complete);
+            node.get("members").set(members);
+            if (pods >= 0) {
+                node.get("pod-list-ms").set(podListTime);
+                node.get("pods").set(pods);
+            }
+            if (failure != null) {
+                node.get("failure").set(failure);
+            }
+            long retries = 0;
+            ModelNode list = node.get("fetches").setEmptyList();
+            for (Fetch fetch : fetches) {
+                ModelNode entry = list.add();
+                entry.get("peer").set(fetch.peer);
+                entry.get("outcome").set(fetch.outcome);
+                entry.get("ms").set(fetch.latency);
+                entry.get("retries").set(fetch.retries);
+                retries += fetch.retries;
+            }
+            node.get("retries").set(retries);
+            return node;
+        }
+    }
+
+    private static class Fetch {
+        private final String peer;
+        private final String outcome;
+        private final long latency;
+        private final long retries;
+
+        private Fetch(String peer, String outcome, long latency, long retries) {
+            this.peer = peer;
+            this.outcome = outcome;
+            this.latency = latency;
+            this.retries = retries;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.kubeping.dns.DnsResolver;
+import org.jboss.kubeping.dns.SrvRecord;
+
+/**
+ * Client which finds pods through DNS records of a headless service, instead of the master.
+ *
+ * Names starting with '_' (e.g. _ping._tcp.myservice.mynamespace.svc.cluster.local) are resolved
+ * as SRV records, which carry the ping port; all other names are resolved as A records
+ * and use the default ping port. Pods are all it can list, features which need the master
+ * are rejected by KubePing in DNS mode.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DnsClient extends Client {
+    private final DnsResolver resolver;
+    private final List<String> names;
+    private final String pingPortName;
+    private final int defaultPort;
+
+    public DnsClient(DnsResolver resolver, List<String> names, String pingPortName, int defaultPort) {
+        this.resolver = resolver;
+        this.names = names;
+        this.pingPortName = pingPortName;
+        this.defaultPort = defaultPort;
+    }
+
+    @Override
+    public String info() {
+        return String.format("DNS names: %s, DNS servers: %s", names, resolver.getServers());
+    }
+
+    /**
+     * Namespace and labels are already expressed by the DNS names, hence ignored;
+     * lookups are bounded by the resolver's own timeouts, and waited for until the deadline.
+     */
+    @Override
+    public List<Pod> getPods(String namespace, String labelsQuery, long deadline) throws IOException {
+        List<String> srvNames = new ArrayList<>();
+        List<String> hostNames = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith("_")) {
+                srvNames.add(name);
+            } else {
+                hostNames.add(name);
+            }
+        }
+
+        Map<String, List<SrvRecord>> services = resolver.lookupSrv(srvNames, deadline);
+        Set<String> targets = new LinkedHashSet<>(hostNames);
+        for (List<SrvRecord> records : services.values()) {
+            for (SrvRecord record : records) {
+                targets.add(record.getTarget());
+            }
+        }
+        Map<String, List<InetAddress>> addresses = resolver.lookupAddresses(targets, deadline);
+
+        List<Pod> pods = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (List<SrvRecord> records : services.values()) {
+            for (SrvRecord record : records) {
+                addPods(pods, seen, record.getTarget(), addresses.get(record.getTarget()), record.getPort());
+            }
+        }
+        for (String hostName : hostNames) {
+            addPods(pods, seen, hostName, addresses.get(hostName), defaultPort);
+        }
+        return pods;
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        resolver.close();
+    }
+
+    private void addPods(List<Pod> pods, Set<String> seen, String host, List<InetAddress> addresses, int port) {
+        if (addresses == null) {
+            return;
+        }
+        for (InetAddress address : addresses) {
+            String podIP = address.getHostAddress();
+            if (seen.add(podIP + ":" + port) == false) {
+                continue;
+            }
+            Pod pod = new Pod();
+            pod.setHost(host);
+            pod.setPodIP(podIP);
+            pod.addContainer(new Container(host, host, podIP, Collections.singletonList(new Port(pingPortName, port))));
+            pods.add(pod);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Server agnostic view of a ping server request and its response.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public interface Exchange {
+    String getPath();
+
+    /**
+     * @return raw query string, or null if none
+     */
+    String getQuery();
+
+    String getRequestHeader(String name);
+
+    /**
+     * @return the client's address, or null if unknown
+     */
+    InetAddress getRemoteAddress();
+
+    void setResponseHeader(String name, String value);
+
+    /**
+     * Send the response; can only be called once.
+     *
+     * @param status the status code
+     * @param body the body, can be empty
+     * @throws IOException for any I/O error
+     */
+    void send(int status, byte[] body) throws IOException;
+}
@@ -16,14 +16,12 @@
 
 package org.jboss.kubeping.rest;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 
 import org.jgroups.Channel;
-import org.jgroups.protocols.PingData;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -40,15 +38,15 @@ public class JDKServer extends AbstractServer {
         super(port, channel);
     }
 
-    public void start() throws Exception {
+    protected void doStart() throws Exception {
         InetSocketAddress address = new InetSocketAddress("0.0.0.0", port);
         server = HttpServer.create(address, 0);
-        server.setExecutor(Executors.newCachedThreadPool());
+        server.setExecutor(createExecutor());
         server.createContext("/", new Handler());
         server.start();
     }
 
-    public void stop() {
+    protected void doStop() {
         if (server != null) {
             server.stop(0);
         }
@@ -56,14 +54,52 @@ public class JDKServer extends AbstractServer {
 
     private class Handler implements HttpHandler {
         public void handle(HttpExchange exchange) throws IOException {
-            exchange.sendResponseHeaders(200, 0);
             try {
-                PingData data = Utils.createPingData(channel);
-                try (OutputStream outputStream = exchange.getResponseBody()) {
-                    data.writeTo(new DataOutputStream(outputStream));
-                }
+                JDKServer.this.handle(new ExchangeAdapter(exchange));
+            } catch (IOException e) {
+                throw e;
             } catch (Exception e) {
                 throw new IOException(e);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static class ExchangeAdapter implements Exchange {
+        private final HttpExchange exchange;
+
+        private ExchangeAdapter(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        public String getPath() {
+            return exchange.getRequestURI().getPath();
+        }
+
+        public String getQuery() {
+            return exchange.getRequestURI().getRawQuery();
+        }
+
+        public String getRequestHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        public InetAddress getRemoteAddress() {
+            InetSocketAddress address = exchange.getRemoteAddress();
+            return (address != null) ? address.getAddress() : null;
+        }
+
+        public void setResponseHeader(String name, String value) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+
+        public void send(int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+            if (body.length > 0) {
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
             }
         }
     }
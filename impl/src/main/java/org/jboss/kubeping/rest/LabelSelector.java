@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Client side evaluation of a labels query, e.g. "name=wildfly,tier!=db,track notin (canary)".
+ *
+ * Supports equality (=, ==), inequality (!=), set membership (in, notin), existence (key) and non-existence (!key).
+ * Anything else is rejected, rather than silently matching no pods.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LabelSelector {
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9._/-]+");
+    private static final Pattern VALUE = Pattern.compile("[A-Za-z0-9._-]*");
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+
+    private final List<Requirement> requirements;
+
+    private LabelSelector(List<Requirement> requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * Parse labels query.
+     *
+     * @param labelsQuery the labels query, or null to match all
+     * @return the selector
+     * @throws IllegalArgumentException for unsupported syntax
+     */
+    public static LabelSelector parse(String labelsQuery) {
+        List<Requirement> requirements = new ArrayList<>();
+        if (labelsQuery != null) {
+            for (String token : split(labelsQuery)) {
+                token = token.trim();
+                if (token.length() == 0) {
+                    continue;
+                }
+                requirements.add(parseRequirement(token, labelsQuery));
+            }
+        }
+        return new LabelSelector(requirements);
+    }
+
+    /**
+     * Split on the commas between requirements, not on those in a set, e.g. "tier in (web,api)".
+     */
+    private static List<String> split(String labelsQuery) {
+        List<String> tokens = new ArrayList<>();
+        boolean inSet = false;
+        int start = 0;
+        for (int i = 0; i < labelsQuery.length(); i++) {
+            char c = labelsQuery.charAt(i);
+            if (c == '(') {
+                if (inSet) {
+                    throw new IllegalArgumentException(String.format("Nested parentheses in labels query [%s].", labelsQuery));
+                }
+                inSet = true;
+            } else if (c == ')') {
+                if (inSet == false) {
+                    throw new IllegalArgumentException(String.format("Unbalanced parentheses in labels query [%s].", labelsQuery));
+                }
+                inSet = false;
+            } else if (c == ',' && inSet == false) {
+                tokens.add(labelsQuery.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (inSet) {
+            throw new IllegalArgumentException(String.format("Unbalanced parentheses in labels query [%s].", labelsQuery));
+        }
+        tokens.add(labelsQuery.substring(start));
+        return tokens;
+    }
+
+    private static Requirement parseRequirement(String token, String labelsQuery) {
+        int p;
+        if ((p = token.indexOf('(')) > 0) {
+            String[] operation = SPACE.split(token.substring(0, p).trim());
+            if (operation.length != 2 || token.endsWith(")") == false || ("in".equals(operation[1]) || "notin".equals(operation[1])) == false) {
+                throw new IllegalArgumentException(String.format("Invalid set requirement [%s] in labels query [%s].", token, labelsQuery));
+            }
+            Set<String> values = new HashSet<>();
+            for (String value : token.substring(p + 1, token.length() - 1).split(",", -1)) {
+                value = value.trim();
+                if (value.length() == 0) {
+                    throw new IllegalArgumentException(String.format("Empty value in [%s] of labels query [%s].", token, labelsQuery));
+                }
+                values.add(checkValue(value, labelsQuery));
+            }
+            return new Requirement(checkKey(operation[0], labelsQuery), values, "in".equals(operation[1]));
+        } else if ((p = token.indexOf("!=")) > 0) {
+            return new Requirement(checkKey(token.substring(0, p), labelsQuery), checkValue(token.substring(p + 2), labelsQuery), false);
+        } else if ((p = token.indexOf("==")) > 0) {
+            return new Requirement(checkKey(token.substring(0, p), labelsQuery), checkValue(token.substring(p + 2), labelsQuery), true);
+        } else if ((p = token.indexOf('=')) > 0) {
+            return new Requirement(checkKey(token.substring(0, p), labelsQuery), checkValue(token.substring(p + 1), labelsQuery), true);
+        } else if (token.startsWith("!")) {
+            return new Requirement(checkKey(token.substring(1), labelsQuery), (Set<String>) null, false);
+        } else {
+            return new Requirement(checkKey(token, labelsQuery), (Set<String>) null, true);
+        }
+    }
+
+    private static String checkKey(String key, String labelsQuery) {
+        key = key.trim();
+        if (KEY.matcher(key).matches() == false) {
+            throw new IllegalArgumentException(String.format("Invalid label key [%s] in labels query [%s].", key, labelsQuery));
+        }
+        return key;
+    }
+
+    private static String checkValue(String value, String labelsQuery) {
+        value = value.trim();
+        if (VALUE.matcher(value).matches() == false) {
+            throw new IllegalArgumentException(String.format("Invalid label value [%s] in labels query [%s].", value, labelsQuery));
+        }
+        return value;
+    }
+
+    public boolean matches(Map<String, String> labels) {
+        for (Requirement requirement : requirements) {
+            if (requirement.matches(labels) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Requirement {
+        private final String key;
+        private final Set<String> values;
+        private final boolean in;
+
+        private Requirement(String key, String value, boolean in) {
+            this(key, Collections.singleton(value), in);
+        }
+
+        /**
+         * @param values the values, null for (non-)existence
+         */
+        private Requirement(String key, Set<String> values, boolean in) {
+            this.key = key;
+            this.values = values;
+            this.in = in;
+        }
+
+        private boolean matches(Map<String, String> labels) {
+            String label = labels.get(key);
+            if (values == null) {
+                return (label != null) == in;
+            } else {
+                // as on the master, a missing label is neither equal to, nor in any set of values
+                return values.contains(label) == in;
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Several master endpoints of an HA control plane.
+ *
+ * Requests go to the healthy endpoint with the lowest median latency.
+ * If it hasn't answered within its latency percentile, a hedged request goes to the next one,
+ * and the first answer wins. Failed endpoints are skipped for an increasing period.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class Masters {
+    private static final Logger log = Logger.getLogger(Masters.class.getName());
+
+    private static final int SAMPLES = 64;
+    private static final long MIN_HEDGE_DELAY = 10;
+    private static final long MAX_BACKOFF = 30000;
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "kubeping-master-request");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private volatile int hedgePercentile = 95;
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    public Masters(List<String> rootURLs) {
+        if (rootURLs.isEmpty()) {
+            throw new IllegalArgumentException("No master endpoints.");
+        }
+        for (String rootURL : rootURLs) {
+            endpoints.add(new Endpoint(rootURL));
+        }
+    }
+
+    /**
+     * A request against one endpoint.
+     */
+    public interface Request<T> {
+        T execute(String rootURL) throws Exception;
+    }
+
+    /**
+     * @param hedgePercentile latency percentile after which a hedged request is sent, 0 to disable hedging
+     */
+    public void setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    public String getRootURL() {
+        return endpoints.get(0).rootURL;
+    }
+
+    /**
+     * Execute request, with failover to the other endpoints.
+     *
+     * @param request the request
+     * @param hedge can the request be sent to more than one endpoint at once
+     * @return first successful result
+     * @throws Exception the last failure, if all endpoints failed
+     */
+    public <T> T execute(final Request<T> request, boolean hedge) throws Exception {
+        List<Endpoint> candidates = getCandidates();
+        CompletionService<T> service = new ExecutorCompletionService<>(executor);
+        List<Future<T>> futures = new ArrayList<>();
+        hedge = hedge && hedgePercentile > 0;
+        Exception lastFail = null;
+        int next = 0;
+        int pending = 0;
+        try {
+            futures.add(submit(service, candidates.get(next++), request));
+            pending++;
+            while (pending > 0) {
+                Future<T> done;
+                if (hedge && next < candidates.size()) {
+                    done = service.poll(candidates.get(next - 1).getHedgeDelay(hedgePercentile), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        hedged.incrementAndGet();
+                        futures.add(submit(service, candidates.get(next++), request));
+                        pending++;
+                        continue;
+                    }
+                } else {
+                    done = service.take();
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    lastFail = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                    if (pending == 0 && next < candidates.size()) {
+                        failovers.incrementAndGet();
+                        futures.add(submit(service, candidates.get(next++), request));
+                        pending++;
+                    }
+                }
+            }
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        throw lastFail;
+    }
+
+    private <T> Future<T> submit(CompletionService<T> service, final Endpoint endpoint, final Request<T> request) {
+        // measured from submit, as that's what the hedge delay is compared to, rounded up to whole ms
+        final long start = System.nanoTime();
+        return service.submit(new Callable<T>() {
+            public T call() throws Exception {
+                try {
+                    T result = request.execute(endpoint.rootURL);
+                    endpoint.success(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + 1);
+                    return result;
+                } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted() == false) {
+                        endpoint.failure();
+                        log.log(Level.FINE, String.format("Master %s failed.", endpoint.rootURL), e);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Healthy endpoints by median latency, unmeasured ones last in configured order,
+     * then the unhealthy ones, the soonest to recover first.
+     */
+    private List<Endpoint> getCandidates() {
+        final long now = System.currentTimeMillis();
+        List<Endpoint> healthy = new ArrayList<>();
+        List<Endpoint> unhealthy = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                healthy.add(endpoint);
+            } else {
+                unhealthy.add(endpoint);
+            }
+        }
+        Collections.sort(healthy, new Comparator<Endpoint>() {
+            public int compare(Endpoint e1, Endpoint e2) {
+                return Long.compare(e1.getRank(), e2.getRank());
+            }
+        });
+        Collections.sort(unhealthy, new Comparator<Endpoint>() {
+            public int compare(Endpoint e1, Endpoint e2) {
+                return Long.compare(e1.getUnhealthyUntil(), e2.getUnhealthyUntil());
+            }
+        });
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    @Override
+    public String toString() {
+        return endpoints.toString();
+    }
+
+    private static class Endpoint {
+        private final String rootURL;
+        private final long[] samples = new long[SAMPLES];
+        private int count;
+        private int failures;
+        private long unhealthyUntil;
+
+        private Endpoint(String rootURL) {
+            this.rootURL = rootURL;
+        }
+
+        synchronized void success(long latency) {
+            samples[count++ % SAMPLES] = latency;
+            failures = 0;
+            unhealthyUntil = 0;
+        }
+
+        synchronized void failure() {
+            failures++;
+            unhealthyUntil = System.currentTimeMillis() + Math.min(MAX_BACKOFF, 1000L << Math.min(failures - 1, 15));
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return now >= unhealthyUntil;
+        }
+
+        synchronized long getUnhealthyUntil() {
+            return unhealthyUntil;
+        }
+
+        /**
+         * @return latency percentile of recent requests, -1 if there were none yet
+         */
+        synchronized long getLatency(int percentile) {
+            int n = Math.min(count, SAMPLES);
+            if (n == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            return sorted[Math.min(n - 1, (n * percentile) / 100)];
+        }
+
+        long getRank() {
+            long latency = getLatency(50);
+            return (latency >= 0) ? latency : Long.MAX_VALUE;
+        }
+
+        long getHedgeDelay(int percentile) {
+            long latency = getLatency(percentile);
+            // without any samples yet, don't hedge too eagerly
+            return (latency >= 0) ? Math.max(MIN_HEDGE_DELAY, latency) : 1000;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s (p50: %s ms, healthy: %s)", rootURL, getLatency(50), isHealthy(System.currentTimeMillis()));
+        }
+    }
+}
@@ -0,0 +1,664 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking HTTP/1.1 GET client, for many concurrent peer calls on a single IO thread.
+ *
+ * Connects, writes, reads, timeouts and retry delays are all driven by one selector;
+ * callers get a future. Retries follow the blocking client: any failure or status
+ * other than 2xx, 3xx or 410 is retried until the tries or the deadline run out,
+ * after Retry-After if the peer sent one. Plain http only, one connection per attempt.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class NioHttpClient implements Closeable {
+    private static final Logger log = Logger.getLogger(NioHttpClient.class.getName());
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Decides how long to wait before a retry, e.g. to honour Retry-After and count retries.
+     */
+    public interface Listener {
+        /**
+         * @param call the call
+         * @param status the response status, or -1 for an I/O error
+         * @param retryAfter the Retry-After header, or null
+         * @param delay the default, jittered, delay in ms
+         * @return the delay to use, in ms
+         */
+        long retrying(Call call, int status, String retryAfter, long delay);
+    }
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxConnections;
+    private final Listener listener;
+    private final Selector selector;
+    private final Thread thread;
+    private final Random random = new Random();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // the rest is only used by the IO thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final Queue<Call> waiting = new ArrayDeque<>();
+    private int connections;
+    private volatile boolean closed;
+
+    /**
+     * @param connectTimeout connect timeout in ms, 0 for none
+     * @param readTimeout timeout in ms for each write or read, 0 for none
+     * @param maxConnections max connections open at once, more calls wait for one to close
+     * @param listener the listener, can be null
+     * @throws IOException if the selector can't be opened
+     */
+    public NioHttpClient(int connectTimeout, int readTimeout, int maxConnections, Listener listener) throws IOException {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.listener = listener;
+        this.selector = Selector.open();
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "kubeping-nio-client");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Start a GET request.
+     *
+     * @param host the host
+     * @param port the port
+     * @param target the request target, path and query
+     * @param headers extra request headers, can be null
+     * @param tries max attempts
+     * @param retryDelay delay between attempts in ms, jittered
+     * @param deadline when to give up, in ms since the epoch
+     * @return the pending call
+     */
+    public Call get(String host, int port, String target, Map<String, String> headers, int tries, long retryDelay, long deadline) {
+        StringBuilder request = new StringBuilder("GET ").append(target).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(host).append(":").append(port).append("\r\n");
+        request.append("Connection: close\r\n");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        request.append("\r\n");
+        Call call = new Call(host, port, target, request.toString().getBytes(StandardCharsets.US_ASCII), tries, retryDelay, deadline);
+        submit(call.new Start());
+        return call;
+    }
+
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+        if (closed) {
+            // the loop may be gone already
+            runTasks();
+        }
+    }
+
+    private synchronized void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (closed) {
+                if (task instanceof Call.Start) {
+                    ((Call.Start) task).call.complete(null, new IOException("Client closed."));
+                }
+                continue;
+            }
+            task.run();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (closed == false) {
+                long wait = 0;
+                Timer next = timers.peek();
+                if (next != null) {
+                    wait = Math.max(1, next.at - System.currentTimeMillis());
+                }
+                selector.select(wait);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Call call = (Call) key.attachment();
+                    try {
+                        ready(call, key);
+                    } catch (CancelledKeyException e) {
+                        // closed meanwhile
+                    } catch (IOException e) {
+                        failed(call, -1, e, null);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                while ((next = timers.peek()) != null && next.at <= now) {
+                    timers.poll();
+                    if (next.cancelled == false) {
+                        next.fire();
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            log.log(Level.WARNING, "NIO client loop failed.", t);
+        } finally {
+            closed = true;
+            for (SelectionKey key : selector.keys()) {
+                ((Call) key.attachment()).complete(null, new IOException("Client closed."));
+                closeQuietly(key.channel());
+            }
+            for (Timer timer : timers) {
+                timer.call.complete(null, new IOException("Client closed."));
+            }
+            for (Call call : waiting) {
+                call.complete(null, new IOException("Client closed."));
+            }
+            runTasks();
+            closeQuietly(selector);
+        }
+    }
+
+    private void start(Call call) {
+        if (call.isDone()) {
+            return;
+        }
+        if (connections >= maxConnections) {
+            waiting.add(call);
+            return;
+        }
+        long remaining = call.deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            giveUp(call, new SocketTimeoutException(String.format("Deadline passed after %s attempt(s).", call.attempts)));
+            return;
+        }
+        call.attempts++;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            call.channel = channel;
+            connections++;
+            channel.configureBlocking(false);
+            call.out = ByteBuffer.wrap(call.request);
+            call.response = new ResponseParser();
+            if (channel.connect(new InetSocketAddress(call.host, call.port))) {
+                call.key = channel.register(selector, SelectionKey.OP_WRITE, call);
+                call.timeout = schedule(call, timeout(readTimeout, remaining), false);
+            } else {
+                call.key = channel.register(selector, SelectionKey.OP_CONNECT, call);
+                call.timeout = schedule(call, timeout(connectTimeout, remaining), false);
+            }
+        } catch (IOException e) {
+            failed(call, -1, e, null);
+        }
+    }
+
+    private void ready(Call call, SelectionKey key) throws IOException {
+        if (call.isDone()) {
+            release(call);
+            return;
+        }
+        SocketChannel channel = (SocketChannel) key.channel();
+        long remaining = call.deadline - System.currentTimeMillis();
+        if (key.isConnectable()) {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_WRITE);
+            reschedule(call, timeout(readTimeout, remaining));
+        } else if (key.isWritable()) {
+            channel.write(call.out);
+            if (call.out.hasRemaining() == false) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            reschedule(call, timeout(readTimeout, remaining));
+        } else if (key.isReadable()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int n = channel.read(buffer);
+            Response response;
+            if (n < 0) {
+                response = call.response.end();
+            } else {
+                response = call.response.feed(buffer.array(), 0, n);
+                reschedule(call, timeout(readTimeout, remaining));
+            }
+            if (response != null) {
+                release(call);
+                int status = response.getStatus();
+                if (status / 100 == 2 || status / 100 == 3 || status == AbstractServer.LEAVING) {
+                    call.complete(response, null);
+                } else {
+                    failed(call, status, new IOException(String.format("Got status %s from [%s].", status, call.url())), response.getHeader("Retry-After"));
+                }
+            }
+        }
+    }
+
+    private void failed(Call call, int status, IOException failure, String retryAfter) {
+        release(call);
+        if (call.isDone()) {
+            return;
+        }
+        long remaining = call.deadline - System.currentTimeMillis();
+        if (call.attempts >= call.tries || remaining <= 0) {
+            giveUp(call, failure);
+            return;
+        }
+        long delay = call.retryDelay / 2 + (long) (random.nextDouble() * call.retryDelay);
+        if (listener != null) {
+            delay = listener.retrying(call, status, retryAfter, delay);
+        }
+        call.timeout = schedule(call, Math.max(0, Math.min(delay, remaining)), true);
+    }
+
+    /**
+     * Fail the call the same way the blocking client does.
+     */
+    private static void giveUp(Call call, IOException failure) {
+        call.complete(null, new IllegalStateException(String.format("%s attempt(s) to open stream [%s] failed. Last failure was [%s: %s].",
+            call.attempts, call.url(), failure.getClass().getName(), failure.getMessage()), failure));
+    }
+
+    /**
+     * Close the attempt's connection, letting a waiting call have one.
+     */
+    private void release(Call call) {
+        if (call.timeout != null) {
+            call.timeout.cancelled = true;
+            call.timeout = null;
+        }
+        if (call.channel != null) {
+            if (call.key != null) {
+                call.key.cancel();
+                call.key = null;
+            }
+            closeQuietly(call.channel);
+            call.channel = null;
+            connections--;
+            Call next;
+            while (connections < maxConnections && (next = waiting.poll()) != null) {
+                start(next);
+            }
+        }
+    }
+
+    private Timer schedule(Call call, long delay, boolean retry) {
+        Timer timer = new Timer(call, System.currentTimeMillis() + delay, retry);
+        timers.add(timer);
+        return timer;
+    }
+
+    private void reschedule(Call call, long delay) {
+        if (call.timeout != null) {
+            call.timeout.cancelled = true;
+        }
+        call.timeout = schedule(call, delay, false);
+    }
+
+    private static long timeout(int timeout, long remaining) {
+        return Math.max(1, (timeout > 0) ? Math.min(timeout, remaining) : remaining);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class Timer implements Comparable<Timer> {
+        private final Call call;
+        private final long at;
+        private final boolean retry;
+        private boolean cancelled;
+
+        private Timer(Call call, long at, boolean retry) {
+            this.call = call;
+            this.at = at;
+            this.retry = retry;
+        }
+
+        private void fire() {
+            if (call.timeout == this) {
+                call.timeout = null;
+            }
+            if (retry) {
+                start(call);
+            } else {
+                failed(call, -1, new SocketTimeoutException(String.format("Timed out talking to [%s].", call.url())), null);
+            }
+        }
+
+        public int compareTo(Timer other) {
+            return (at < other.at) ? -1 : ((at == other.at) ? 0 : 1);
+        }
+    }
+
+    /**
+     * A pending request.
+     */
+    public class Call implements Future<Response> {
+        private final String host;
+        private final int port;
+        private final String target;
+        private final byte[] request;
+        private final int tries;
+        private final long retryDelay;
+        private final long deadline;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Response result;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        // IO thread only
+        private int attempts;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer out;
+        private ResponseParser response;
+        private Timer timeout;
+
+        private Call(String host, int port, String target, byte[] request, int tries, long retryDelay, long deadline) {
+            this.host = host;
+            this.port = port;
+            this.target = target;
+            this.request = request;
+            this.tries = Math.max(1, tries);
+            this.retryDelay = retryDelay;
+            this.deadline = deadline;
+        }
+
+        public String url() {
+            return String.format("http://%s:%s%s", host, port, target);
+        }
+
+        private synchronized boolean complete(Response result, Throwable failure) {
+            if (done.getCount() == 0) {
+                return false;
+            }
+            this.result = result;
+            this.failure = failure;
+            done.countDown();
+            return true;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (complete(null, new CancellationException()) == false) {
+                return false;
+            }
+            cancelled = true;
+            submit(new Runnable() {
+                public void run() {
+                    release(Call.this);
+                    waiting.remove(Call.this);
+                }
+            });
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public Response get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (done.await(timeout, unit) == false) {
+                throw new TimeoutException(url());
+            }
+            return result();
+        }
+
+        private Response result() throws ExecutionException {
+            if (failure instanceof CancellationException) {
+                throw (CancellationException) failure;
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        private class Start implements Runnable {
+            private final Call call = Call.this;
+
+            public void run() {
+                start(call);
+            }
+        }
+    }
+
+    /**
+     * A complete response.
+     */
+    public static class Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private Response(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Incremental response parser: status line and headers, then a body
+     * by Content-Length, chunked, or up to the end of the stream.
+     */
+    private static class ResponseParser {
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        private int crlf; // how much of the CRLF CRLF ending the head has been seen
+        private ByteArrayOutputStream body;
+        private int status;
+        private Map<String, String> headers;
+        private long length = -1;
+        private boolean chunked;
+        private byte[] pending = new byte[0];
+
+        private Response feed(byte[] bytes, int offset, int count) throws IOException {
+            if (headers == null) {
+                for (int i = offset; i < offset + count; i++) {
+                    if (endsHead(bytes[i])) {
+                        head.write(bytes, offset, i + 1 - offset);
+                        parseHead();
+                        Response response = (body == null) ? new Response(status, headers, new byte[0]) : null;
+                        if (response != null) {
+                            return response;
+                        }
+                        return feedBody(bytes, i + 1, offset + count - i - 1);
+                    }
+                }
+                head.write(bytes, offset, count);
+                return null;
+            }
+            return feedBody(bytes, offset, count);
+        }
+
+        private Response end() throws IOException {
+            if (headers != null && chunked == false && length < 0) {
+                return new Response(status, headers, body.toByteArray());
+            }
+            throw new EOFException("Connection closed before the response was complete.");
+        }
+
+        /**
+         * Track the head's ending byte by byte, as it may be split across reads.
+         */
+        private boolean endsHead(byte b) {
+            if (b == '\r') {
+                crlf = (crlf == 2) ? 3 : 1;
+            } else if (b == '\n' && (crlf == 1 || crlf == 3)) {
+                crlf++;
+            } else {
+                crlf = 0;
+            }
+            return crlf == 4;
+        }
+
+        private void parseHead() throws IOException {
+            String[] lines = new String(head.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length < 2 || statusLine[0].startsWith("HTTP/") == false) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            try {
+                status = Integer.parseInt(statusLine[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            Map<String, String> map = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    map.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH), lines[i].substring(colon + 1).trim());
+                }
+            }
+            headers = Collections.unmodifiableMap(map);
+            if (status / 100 == 1 || status == 204 || status == 304) {
+                return;
+            }
+            String encoding = map.get("transfer-encoding");
+            String contentLength = map.get("content-length");
+            if (encoding != null && encoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+                chunked = true;
+            } else if (contentLength != null) {
+                try {
+                    length = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: " + contentLength);
+                }
+                if (length == 0) {
+                    return;
+                }
+            }
+            body = new ByteArrayOutputStream(length > 0 ? (int) Math.min(length, 1 << 20) : 256);
+        }
+
+        private Response feedBody(byte[] bytes, int offset, int count) throws IOException {
+            if (chunked) {
+                return feedChunked(bytes, offset, count);
+            }
+            body.write(bytes, offset, count);
+            if (length >= 0 && body.size() >= length) {
+                return new Response(status, headers, body.toByteArray());
+            }
+            return null;
+        }
+
+        private Response feedChunked(byte[] bytes, int offset, int count) throws IOException {
+            byte[] data = new byte[pending.length + count];
+            System.arraycopy(pending, 0, data, 0, pending.length);
+            System.arraycopy(bytes, offset, data, pending.length, count);
+            int position = 0;
+            while (true) {
+                int lineEnd = indexOfCrlf(data, position);
+                if (lineEnd < 0) {
+                    break;
+                }
+                String sizeLine = new String(data, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+                int semicolon = sizeLine.indexOf(';');
+                int size;
+                try {
+                    size = Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + sizeLine);
+                }
+                if (size == 0) {
+                    // trailers are ignored
+                    return new Response(status, headers, body.toByteArray());
+                }
+                if (data.length < lineEnd + 2 + size + 2) {
+                    break;
+                }
+                body.write(data, lineEnd + 2, size);
+                position = lineEnd + 2 + size + 2;
+            }
+            pending = new byte[data.length - position];
+            System.arraycopy(data, position, pending, 0, pending.length);
+            return null;
+        }
+
+        private static int indexOfCrlf(byte[] data, int from) {
+            for (int i = from; i < data.length - 1; i++) {
+                if (data[i] == '\r' && data[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
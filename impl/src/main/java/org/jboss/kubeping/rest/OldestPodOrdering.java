@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Oldest pods first, as the oldest member is most likely the coordinator.
+ * Pods with unknown creation time go last.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class OldestPodOrdering implements PeerOrdering {
+    public void order(List<Pod> pods, String localNode, long deadline) {
+        Collections.sort(pods, new Comparator<Pod>() {
+            public int compare(Pod p1, Pod p2) {
+                long t1 = p1.getCreationTimestamp() > 0 ? p1.getCreationTimestamp() : Long.MAX_VALUE;
+                long t2 = p2.getCreationTimestamp() > 0 ? p2.getCreationTimestamp() : Long.MAX_VALUE;
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+    }
+}
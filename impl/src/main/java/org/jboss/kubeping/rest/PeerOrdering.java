@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.List;
+
+/**
+ * Order in which pods are contacted during discovery.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public interface PeerOrdering {
+    /**
+     * Order pods in place.
+     *
+     * @param pods the pods
+     * @param localNode the node this JVM runs on, or null if unknown
+     * @param deadline the discovery round's deadline, in ms since the epoch
+     * @throws Exception for any error
+     */
+    void order(List<Pod> pods, String localNode, long deadline) throws Exception;
+}
@@ -0,0 +1,151 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jgroups.protocols.PingData;
+
+/**
+ * Keeps long poll requests open against a small set of peers,
+ * and tells the listener as soon as a peer's ping data changes.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PeerWatcher {
+    private static final Logger log = Logger.getLogger(PeerWatcher.class.getName());
+
+    private static final long MIN_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 30000;
+
+    private final Client client;
+    private final long timeout;
+    private final Listener listener;
+    private final Map<String, Thread> watches = new HashMap<>();
+
+    public interface Listener {
+        /**
+         * Peer's ping data changed; also called with its current data once the watch starts.
+         *
+         * @param peer the peer, as host:port
+         * @param data the new ping data
+         */
+        void changed(String peer, PingData data);
+    }
+
+    /**
+     * @param client the client
+     * @param timeout how long each request is held by the peer, in ms
+     * @param listener the listener
+     */
+    public PeerWatcher(Client client, long timeout, Listener listener) {
+        this.client = client;
+        this.timeout = timeout;
+        this.listener = listener;
+    }
+
+    /**
+     * Watch exactly these peers; new ones are started, the others stopped.
+     *
+     * @param peers the peers, as host:port
+     */
+    public synchronized void watch(Collection<String> peers) {
+        Set<String> wanted = new HashSet<>(peers);
+        for (Iterator<Map.Entry<String, Thread>> it = watches.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Thread> entry = it.next();
+            if (wanted.contains(entry.getKey()) == false) {
+                entry.getValue().interrupt();
+                it.remove();
+            }
+        }
+        for (String peer : wanted) {
+            if (watches.containsKey(peer) == false) {
+                int p = peer.lastIndexOf(':');
+                Thread thread = new Thread(new Watch(peer, peer.substring(0, p), Integer.parseInt(peer.substring(p + 1))), "kubeping-watch-" + peer);
+                thread.setDaemon(true);
+                watches.put(peer, thread);
+                thread.start();
+            }
+        }
+    }
+
+    public synchronized Set<String> getPeers() {
+        return new HashSet<>(watches.keySet());
+    }
+
+    public synchronized void stop() {
+        for (Thread thread : watches.values()) {
+            thread.interrupt();
+        }
+        watches.clear();
+    }
+
+    /**
+     * A watch ended by itself; its entry goes, unless the peer is already watched anew.
+     */
+    private synchronized void done(String peer, Thread thread) {
+        if (watches.get(peer) == thread) {
+            watches.remove(peer);
+        }
+    }
+
+    private class Watch implements Runnable {
+        private final String peer;
+        private final String host;
+        private final int port;
+
+        private Watch(String peer, String host, int port) {
+            this.peer = peer;
+            this.host = host;
+            this.port = port;
+        }
+
+        public void run() {
+            PingData last = null;
+            long backoff = MIN_BACKOFF;
+            while (Thread.currentThread().isInterrupted() == false) {
+                try {
+                    PingData data = client.watchPingData(host, port, timeout);
+                    backoff = MIN_BACKOFF;
+                    if (data != last && Thread.currentThread().isInterrupted() == false) {
+                        last = data;
+                        listener.changed(peer, data);
+                    }
+                } catch (PeerLeavingException e) {
+                    log.fine(String.format("Peer %s is leaving, no longer watched.", peer));
+                    done(peer, Thread.currentThread());
+                    return;
+                } catch (Exception e) {
+                    log.log(Level.FINE, String.format("Watching %s failed, retrying in %s ms.", peer, backoff), e);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    backoff = Math.min(MAX_BACKOFF, backoff * 2);
+                }
+            }
+        }
+    }
+}
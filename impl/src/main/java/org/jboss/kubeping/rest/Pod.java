@@ -16,19 +16,44 @@
 
 package org.jboss.kubeping.rest;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Pod as listed by the master.
+ *
+ * It is read-only once listed, and compact, as pod lists may be cached for long:
+ * repeating strings and label maps are shared between pods, and an IPv4 pod IP is kept as an int.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class Pod {
+    private static final Container[] NO_CONTAINERS = new Container[0];
+
+    private String name;
     private String host;
-    private String podIP;
-    private List<Container> containers = new ArrayList<>();
+    private int ip;
+    private String podIP; // only if not IPv4
+    private Container[] containers = NO_CONTAINERS;
+    private Map<String, String> labels = Collections.emptyMap();
+    private Map<String, String> annotations = Collections.emptyMap();
+    private String phase;
+    private Boolean ready;
+    private String deletionTimestamp;
+    private long creationTimestamp;
+
+    public String getName() {
+        return name;
+    }
 
-    public void setHost(String host) {
-        this.host = host;
+    void setName(String name) {
+        this.name = name;
+    }
+
+    void setHost(String host) {
+        this.host = Compact.intern(host);
     }
 
     public String getHost() {
@@ -36,18 +61,89 @@ public class Pod {
     }
 
     public String getPodIP() {
-        return podIP;
+        return (ip != 0) ? Compact.toString(ip) : podIP;
     }
 
-    public void setPodIP(String podIP) {
-        this.podIP = podIP;
+    void setPodIP(String podIP) {
+        this.ip = Compact.toInt(podIP);
+        this.podIP = (ip == 0) ? podIP : null;
     }
 
     void addContainer(Container container) {
-        containers.add(container);
+        containers = Arrays.copyOf(containers, containers.length + 1);
+        containers[containers.length - 1] = container;
     }
 
     public List<Container> getContainers() {
-        return containers;
+        return Collections.unmodifiableList(Arrays.asList(containers));
+    }
+
+    void setLabels(Map<String, String> labels) {
+        this.labels = Compact.intern(labels);
+    }
+
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    void setAnnotations(Map<String, String> annotations) {
+        this.annotations = (annotations == null || annotations.isEmpty()) ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(annotations);
+    }
+
+    public Map<String, String> getAnnotations() {
+        return annotations;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    void setPhase(String phase) {
+        this.phase = Compact.intern(phase);
+    }
+
+    void setReady(Boolean ready) {
+        this.ready = ready;
+    }
+
+    public String getDeletionTimestamp() {
+        return deletionTimestamp;
+    }
+
+    void setDeletionTimestamp(String deletionTimestamp) {
+        this.deletionTimestamp = deletionTimestamp;
+    }
+
+    /**
+     * Unknown phase counts as running, as older masters do not report it.
+     *
+     * @return true if running
+     */
+    public boolean isRunning() {
+        return phase == null || "Running".equals(phase);
+    }
+
+    /**
+     * Unknown readiness counts as ready, as older masters do not report it.
+     *
+     * @return true if ready
+     */
+    public boolean isReady() {
+        return ready == null || ready;
+    }
+
+    public boolean isTerminating() {
+        return deletionTimestamp != null;
+    }
+
+    /**
+     * @return creation time in ms, 0 if unknown
+     */
+    public long getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    void setCreationTimestamp(long creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
     }
 }
@@ -0,0 +1,296 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Node local discovery agent, e.g. run as a DaemonSet, serving pod lists to all the JVMs on its node.
+ *
+ * Each namespace's pod list is fetched from the master at most once per refresh interval, whoever asks,
+ * and served as the master sent it, protobuf or JSON; clients match their labels themselves.
+ * Master traffic then grows with the number of nodes, not pods.
+ * If the master fails, the previous list is served for up to {@link #MAX_STALE} refresh intervals.
+ *
+ * Clients point {@link Client#setAgentURL(String)} at it, and fall back to the master if it fails.
+ * It lists pods with its own credentials, so only the namespaces it is given are served, others get a 403.
+ *
+ * The pod lists are served whole, with env, annotations and all, to whoever can reach the agent.
+ * It listens on loopback by default; when listening on the node's address, e.g. for pods to reach it
+ * via the downward API's status.hostIP, any workload able to reach the node could read them,
+ * so set a token, which clients then send as a bearer token (see {@link Client#setAgentToken(String)}).
+ * The token travels in the clear, as the agent speaks plain HTTP.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class PodAgent {
+    private static final Logger log = Logger.getLogger(PodAgent.class.getName());
+
+    public static final int DEFAULT_PORT = 8889;
+    public static final int MAX_STALE = 10;
+
+    private final Client client;
+    private final String host;
+    private final int port;
+    private final long refreshInterval;
+    private final Set<String> allowed;
+    private volatile String token;
+    private final ConcurrentMap<String, Entry> namespaces = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong lists = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param client the master client
+     * @param host the address to listen on, e.g. 127.0.0.1, or the node's address with host networking
+     * @param port the port, 0 for any
+     * @param refreshInterval how long (in ms) a pod list is served before it is fetched again
+     * @param allowed the namespaces served, the empty string being the client's default one
+     */
+    public PodAgent(Client client, String host, int port, long refreshInterval, Set<String> allowed) {
+        this.client = client;
+        this.host = host;
+        this.port = port;
+        this.refreshInterval = refreshInterval;
+        this.allowed = Collections.unmodifiableSet(new HashSet<>(allowed));
+    }
+
+    /**
+     * Only serve requests carrying this bearer token.
+     *
+     * @param token the token, null to serve anyone
+     */
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        if (token == null && server.getAddress().getAddress().isLoopbackAddress() == false) {
+            log.warning(String.format("Pod agent listening on %s without a token, anyone reaching it can read the pods of %s.", host, allowed));
+        }
+        server.createContext("/pods", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        final AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "kubeping-agent-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        log.info(String.format("Pod agent listening on %s:%s, %s", host, getPort(), client.info()));
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        namespaces.clear();
+    }
+
+    /**
+     * @return the port listened on
+     */
+    public int getPort() {
+        return (server != null) ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * @return number of pod lists served
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of pod lists fetched from the master
+     */
+    public long getLists() {
+        return lists.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        if ("GET".equals(exchange.getRequestMethod()) == false) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        if (isAuthorized(exchange) == false) {
+            exchange.sendResponseHeaders(403, -1);
+            return;
+        }
+        String namespace = getNamespace(exchange.getRequestURI().getRawQuery());
+        if (allowed.contains(namespace) == false) {
+            log.warning(String.format("Refused to list pods in namespace %s.", namespace));
+            exchange.sendResponseHeaders(403, -1);
+            return;
+        }
+        Client.RawPods pods;
+        try {
+            pods = getPods(namespace);
+        } catch (IOException e) {
+            log.log(Level.WARNING, String.format("Failed to list pods in namespace %s.", namespace), e);
+            exchange.sendResponseHeaders(502, -1);
+            return;
+        }
+        requests.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", (pods.getContentType() != null) ? pods.getContentType() : "application/json");
+        exchange.sendResponseHeaders(200, pods.getBody().length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(pods.getBody());
+        }
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        String expected = token;
+        if (expected == null) {
+            return true;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || authorization.startsWith("Bearer ") == false) {
+            return false;
+        }
+        String given = authorization.substring("Bearer ".length());
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Client.RawPods getPods(String namespace) throws IOException {
+        Entry entry = namespaces.get(namespace);
+        if (entry == null) {
+            Entry previous = namespaces.putIfAbsent(namespace, entry = new Entry());
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        synchronized (entry) {
+            // concurrent callers share the list call of whoever got here first
+            long age = System.currentTimeMillis() - entry.timestamp;
+            if (entry.pods == null || age > refreshInterval) {
+                try {
+                    entry.pods = client.getRawPods(namespace.isEmpty() ? null : namespace);
+                    entry.timestamp = System.currentTimeMillis();
+                    lists.incrementAndGet();
+                } catch (IOException e) {
+                    if (entry.pods == null || age > MAX_STALE * refreshInterval) {
+                        throw e;
+                    }
+                    log.log(Level.WARNING, String.format("Failed to refresh pods in namespace %s, serving the ones from %s ms ago.", namespace, age), e);
+                }
+            }
+            return entry.pods;
+        }
+    }
+
+    private static String getNamespace(String query) throws IOException {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("namespace=")) {
+                    return URLDecoder.decode(parameter.substring("namespace=".length()), "UTF-8");
+                }
+            }
+        }
+        return "";
+    }
+
+    private static class Entry {
+        private Client.RawPods pods;
+        private long timestamp;
+    }
+
+    /**
+     * Run the agent, configured like {@link org.jboss.kubeping.KubePing}: the master from the
+     * OPENSHIFT_MASTER_* or KUBERNETES_RO_SERVICE_* environment, client certificates from KUBERNETES_CLIENT_*
+     * and KUBERNETES_CA_CERTIFICATE_FILE; kubeping.agent.* system properties for the rest.
+     * The namespaces served are the comma separated kubeping.agent.namespaces, by default the pod's own
+     * from POD_NAMESPACE, else the client's default one.
+     * The token is kubeping.agent.token, else KUBEPING_AGENT_TOKEN, e.g. from a secret.
+     *
+     * @param args none
+     * @throws Exception for any error
+     */
+    public static void main(String[] args) throws Exception {
+        String masterHost = System.getenv("OPENSHIFT_MASTER_HOST");
+        String masterPort = System.getenv("OPENSHIFT_MASTER_PORT");
+        if (masterHost == null) {
+            masterHost = System.getenv("KUBERNETES_RO_SERVICE_HOST");
+            masterPort = System.getenv("KUBERNETES_RO_SERVICE_PORT");
+        }
+        masterHost = System.getProperty("kubeping.agent.master.host", masterHost);
+        masterPort = System.getProperty("kubeping.agent.master.port", masterPort);
+        String certFile = System.getenv("KUBERNETES_CLIENT_CERTIFICATE_FILE");
+        Certs certs = null;
+        if (certFile != null) {
+            certs = new Certs(certFile, System.getenv("KUBERNETES_CLIENT_KEY_FILE"), System.getenv("KUBERNETES_CLIENT_KEY_PASSWORD"),
+                System.getenv("KUBERNETES_CLIENT_KEY_ALGO"), System.getenv("KUBERNETES_CA_CERTIFICATE_FILE"));
+        }
+        Client client = new Client(masterHost, masterPort, System.getProperty("kubeping.agent.version", "v1beta1"), certs);
+        client.setProtobuf(Boolean.getBoolean("kubeping.agent.protobuf"));
+        client.setRateLimiter(new RateLimiter(Double.parseDouble(System.getProperty("kubeping.agent.master.rate", "0")), 1));
+
+        String namespace = System.getenv("POD_NAMESPACE");
+        Set<String> allowed = new HashSet<>();
+        for (String ns : System.getProperty("kubeping.agent.namespaces", (namespace != null) ? namespace : "").split(",")) {
+            allowed.add(ns.trim());
+        }
+
+        PodAgent agent = new PodAgent(client,
+            System.getProperty("kubeping.agent.host", "127.0.0.1"),
+            Integer.getInteger("kubeping.agent.port", DEFAULT_PORT),
+            Long.getLong("kubeping.agent.refresh", 5000),
+            allowed);
+        agent.setToken(System.getProperty("kubeping.agent.token", System.getenv("KUBEPING_AGENT_TOKEN")));
+        agent.start();
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JVM wide, reference counted pod list per client configuration and namespace.
+ * Clients with a different master, credentials, protobuf, agent or rate limit get caches of their own,
+ * as the first client to acquire a cache is the one which lists the pods.
+ *
+ * All pods of the namespace are listed once per refresh interval, on a shared schedule,
+ * and each user's labels query is evaluated on the client side.
+ * A list call in flight is shared, each caller waiting for it no longer than its own deadline.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PodCache {
+    private static final Logger log = Logger.getLogger(PodCache.class.getName());
+
+    private static final Map<String, PodCache> caches = new HashMap<>();
+    private static ScheduledExecutorService scheduler;
+
+    private final String key;
+    private final Client client;
+    private final String namespace;
+    private final AtomicReference<FutureTask<Snapshot>> inflight = new AtomicReference<>();
+
+    private int references; // guarded by caches
+    private ScheduledFuture<?> refresher; // guarded by caches
+    private volatile long refreshInterval;
+    private volatile Snapshot snapshot;
+
+    private PodCache(String key, Client client, String namespace) {
+        this.key = key;
+        this.client = client;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Get the shared cache for client's configuration and namespace.
+     * Each acquire must be paired with a release.
+     *
+     * @param client the client
+     * @param namespace the namespace
+     * @param refreshInterval the refresh interval in ms; the shortest one requested is used
+     * @return shared pod cache
+     */
+    public static PodCache acquire(Client client, String namespace, long refreshInterval) {
+        String key = client.getConfigKey() + "|" + namespace;
+        synchronized (caches) {
+            PodCache cache = caches.get(key);
+            if (cache == null) {
+                cache = new PodCache(key, client, namespace);
+                caches.put(key, cache);
+            }
+            cache.references++;
+            if (cache.refresher == null || refreshInterval < cache.refreshInterval) {
+                cache.schedule(refreshInterval);
+            }
+            return cache;
+        }
+    }
+
+    public void release() {
+        synchronized (caches) {
+            if (--references == 0) {
+                refresher.cancel(false);
+                caches.remove(key);
+                if (caches.isEmpty()) {
+                    scheduler.shutdownNow();
+                    scheduler = null;
+                }
+            }
+        }
+    }
+
+    private void schedule(long interval) {
+        if (refresher != null) {
+            refresher.cancel(false);
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "kubeping-pod-cache");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        refreshInterval = interval;
+        refresher = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh(snapshot, System.currentTimeMillis() + refreshInterval);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, String.format("Failed to refresh pods [%s], keeping the previous ones.", key), e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get pods matching labels query.
+     *
+     * @param labelsQuery the labels query
+     * @return matching pods
+     * @throws IOException for any I/O error
+     */
+    public List<Pod> getPods(String labelsQuery) throws IOException {
+        return getPods(labelsQuery, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get pods matching labels query, listing them first if the cache is too stale.
+     * If a list call in flight does not finish by the deadline, the stale pods are served, if any.
+     *
+     * @param labelsQuery the labels query
+     * @param deadline the deadline of the list call, in ms since the epoch
+     * @return matching pods
+     * @throws IOException for any I/O error
+     */
+    public List<Pod> getPods(String labelsQuery, long deadline) throws IOException {
+        Snapshot current = snapshot;
+        if (current == null || current.isOlderThan(2 * refreshInterval)) {
+            current = refresh(current, deadline);
+        }
+        LabelSelector selector = LabelSelector.parse(labelsQuery);
+        List<Pod> pods = new ArrayList<>();
+        for (Pod pod : current.pods) {
+            if (selector.matches(pod.getLabels())) {
+                pods.add(pod);
+            }
+        }
+        return pods;
+    }
+
+    private Snapshot refresh(Snapshot seen, long deadline) throws IOException {
+        while (true) {
+            Snapshot current = snapshot;
+            if (current != seen && current != null) {
+                return current;
+            }
+            // concurrent callers share the list call of whoever got here first
+            FutureTask<Snapshot> task = inflight.get();
+            if (task == null) {
+                task = createRefresh(deadline);
+                if (inflight.compareAndSet(null, task) == false) {
+                    continue;
+                }
+                task.run();
+            }
+            try {
+                if (deadline == Long.MAX_VALUE) {
+                    return task.get();
+                }
+                return task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (seen != null) {
+                    log.warning(String.format("Pods [%s] still being listed, serving the ones from %s ms ago.", key, seen.getAge()));
+                    return seen;
+                }
+                throw new SocketTimeoutException(String.format("Deadline passed while pods [%s] were being listed.", key));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while pods [%s] were being listed.", key));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private FutureTask<Snapshot> createRefresh(final long deadline) {
+        final AtomicReference<FutureTask<Snapshot>> self = new AtomicReference<>();
+        FutureTask<Snapshot> task = new FutureTask<>(new Callable<Snapshot>() {
+            public Snapshot call() throws Exception {
+                try {
+                    Snapshot current = new Snapshot(client.getPods(namespace, null, deadline));
+                    snapshot = current;
+                    if (log.isLoggable(Level.FINE)) {
+                        log.fine(String.format("Refreshed pods [%s], found %s.", key, current.pods.size()));
+                    }
+                    return current;
+                } finally {
+                    inflight.compareAndSet(self.get(), null);
+                }
+            }
+        });
+        self.set(task);
+        return task;
+    }
+
+    private static class Snapshot {
+        private final List<Pod> pods;
+        private final long timestamp;
+
+        private Snapshot(List<Pod> pods) {
+            this.pods = Collections.unmodifiableList(pods);
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        private long getAge() {
+            return System.currentTimeMillis() - timestamp;
+        }
+
+        private boolean isOlderThan(long age) {
+            return getAge() > age;
+        }
+    }
+}
@@ -19,19 +19,21 @@ package org.jboss.kubeping.rest;
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
-public class Port {
-    private String name;
-    private Integer hostPort;
-    private Integer containerPort;
+public class Port implements Comparable<Port> {
+    private static final int UNDEFINED = -1;
+
+    private final String name;
+    private final int hostPort;
+    private final int containerPort;
 
     public Port(String name, Integer containerPort) {
         this(name, null, containerPort);
     }
 
     public Port(String name, Integer hostPort, Integer containerPort) {
-        this.name = name;
-        this.hostPort = hostPort;
-        this.containerPort = containerPort;
+        this.name = Compact.intern(name);
+        this.hostPort = (hostPort != null) ? hostPort : UNDEFINED;
+        this.containerPort = (containerPort != null) ? containerPort : UNDEFINED;
     }
 
     public String getName() {
@@ -39,10 +41,21 @@ public class Port {
     }
 
     public Integer getHostPort() {
-        return hostPort;
+        return (hostPort != UNDEFINED) ? hostPort : null;
     }
 
     public Integer getContainerPort() {
-        return containerPort;
+        return (containerPort != UNDEFINED) ? containerPort : null;
+    }
+
+    public int compareTo(Port other) {
+        return compare(name, other.name);
+    }
+
+    static int compare(String n1, String n2) {
+        if (n1 == null) {
+            return (n2 == null) ? 0 : -1;
+        }
+        return (n2 == null) ? 1 : n1.compareTo(n2);
     }
 }
@@ -0,0 +1,387 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Lean decoder of the master's protobuf pod list (application/vnd.kubernetes.protobuf, v1 API).
+ *
+ * Only the fields the Pod model needs are read, everything else is skipped without being decoded:
+ * metadata name, creation and deletion timestamp, labels and annotations;
+ * spec node name and container ports; status phase, ready condition and pod IP.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class ProtobufPods {
+    public static final String CONTENT_TYPE = "application/vnd.kubernetes.protobuf";
+
+    private static final byte[] MAGIC = {'k', '8', 's', 0};
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int BYTES = 2;
+    private static final int FIXED32 = 5;
+
+    private ProtobufPods() {
+    }
+
+    public static boolean isProtobuf(String contentType) {
+        return contentType != null && contentType.startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * Decode a pod list.
+     *
+     * @param bytes the response body, starting with the k8s magic
+     * @return pods
+     * @throws IOException if the body is not a valid protobuf pod list
+     */
+    public static List<Pod> readPodList(byte[] bytes) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes.length <= i || bytes[i] != MAGIC[i]) {
+                throw new IOException("Missing protobuf magic.");
+            }
+        }
+        // runtime.Unknown: typeMeta = 1, raw = 2
+        Reader unknown = new Reader(bytes, MAGIC.length, bytes.length);
+        Reader raw = null;
+        while (unknown.next()) {
+            if (unknown.field() == 2) {
+                raw = unknown.message();
+            } else {
+                unknown.skip();
+            }
+        }
+        if (raw == null) {
+            throw new IOException("Missing protobuf raw object.");
+        }
+        // PodList: metadata = 1, items = 2
+        List<Pod> pods = new ArrayList<>();
+        while (raw.next()) {
+            if (raw.field() == 2) {
+                pods.add(readPod(raw.message()));
+            } else {
+                raw.skip();
+            }
+        }
+        return pods;
+    }
+
+    private static Pod readPod(Reader reader) throws IOException {
+        // Pod: metadata = 1, spec = 2, status = 3
+        Pod pod = new Pod();
+        Reader spec = null;
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    readMetadata(reader.message(), pod);
+                    break;
+                case 2:
+                    spec = reader.message();
+                    break;
+                case 3:
+                    readStatus(reader.message(), pod);
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        // containers need the host and pod IP
+        if (spec != null) {
+            readSpec(spec, pod);
+        }
+        return pod;
+    }
+
+    private static void readMetadata(Reader reader, Pod pod) throws IOException {
+        // ObjectMeta: name = 1, creationTimestamp = 8, deletionTimestamp = 9, labels = 11, annotations = 12
+        Map<String, String> labels = new HashMap<>();
+        Map<String, String> annotations = new HashMap<>();
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    pod.setName(reader.string());
+                    break;
+                case 8:
+                    pod.setCreationTimestamp(readTime(reader.message()) * 1000);
+                    break;
+                case 9:
+                    pod.setDeletionTimestamp(formatTime(readTime(reader.message())));
+                    break;
+                case 11:
+                    readEntry(reader.message(), labels);
+                    break;
+                case 12:
+                    readEntry(reader.message(), annotations);
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        pod.setLabels(labels);
+        pod.setAnnotations(annotations);
+    }
+
+    private static void readSpec(Reader reader, Pod pod) throws IOException {
+        // PodSpec: containers = 2, nodeName = 10
+        List<Reader> containers = new ArrayList<>();
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 2:
+                    containers.add(reader.message());
+                    break;
+                case 10:
+                    pod.setHost(reader.string());
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        for (Reader container : containers) {
+            readContainer(container, pod);
+        }
+    }
+
+    private static void readContainer(Reader reader, Pod pod) throws IOException {
+        // Container: name = 1, ports = 6
+        String name = null;
+        List<Port> ports = null;
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    name = reader.string();
+                    break;
+                case 6:
+                    if (ports == null) {
+                        ports = new ArrayList<>();
+                    }
+                    ports.add(readPort(reader.message()));
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        // the same as with JSON, containers without ports are of no interest
+        if (ports != null) {
+            pod.addContainer(new Container(name, pod.getHost(), pod.getPodIP(), ports));
+        }
+    }
+
+    private static Port readPort(Reader reader) throws IOException {
+        // ContainerPort: name = 1, hostPort = 2, containerPort = 3
+        String name = null;
+        Integer hostPort = null;
+        Integer containerPort = null;
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    name = reader.string();
+                    break;
+                case 2:
+                    hostPort = (int) reader.varint();
+                    break;
+                case 3:
+                    containerPort = (int) reader.varint();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        return new Port(name, hostPort, containerPort);
+    }
+
+    private static void readStatus(Reader reader, Pod pod) throws IOException {
+        // PodStatus: phase = 1, conditions = 2, podIP = 6
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    pod.setPhase(reader.string());
+                    break;
+                case 2:
+                    readCondition(reader.message(), pod);
+                    break;
+                case 6:
+                    pod.setPodIP(reader.string());
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+    }
+
+    private static void readCondition(Reader reader, Pod pod) throws IOException {
+        // PodCondition: type = 1, status = 2
+        String type = null;
+        String status = null;
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    type = reader.string();
+                    break;
+                case 2:
+                    status = reader.string();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        if ("Ready".equals(type)) {
+            pod.setReady("True".equalsIgnoreCase(status));
+        }
+    }
+
+    private static void readEntry(Reader reader, Map<String, String> map) throws IOException {
+        // map entry: key = 1, value = 2
+        String key = null;
+        String value = "";
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                    key = reader.string();
+                    break;
+                case 2:
+                    value = reader.string();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        if (key != null) {
+            map.put(key, value);
+        }
+    }
+
+    private static long readTime(Reader reader) throws IOException {
+        // Time: seconds = 1, nanos = 2
+        long seconds = 0;
+        while (reader.next()) {
+            if (reader.field() == 1) {
+                seconds = reader.varint();
+            } else {
+                reader.skip();
+            }
+        }
+        return seconds;
+    }
+
+    private static String formatTime(long seconds) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(seconds * 1000));
+    }
+
+    /**
+     * Reads the fields of one message, within its bounds of the shared buffer.
+     */
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+        private final int limit;
+        private int tag;
+
+        private Reader(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private boolean next() throws IOException {
+            if (position >= limit) {
+                return false;
+            }
+            tag = (int) varint();
+            return true;
+        }
+
+        private int field() {
+            return tag >>> 3;
+        }
+
+        private long varint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Truncated varint.");
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint.");
+        }
+
+        private int length() throws IOException {
+            if ((tag & 7) != BYTES) {
+                throw new IOException(String.format("Field %s is not length delimited.", field()));
+            }
+            long length = varint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Truncated field " + field());
+            }
+            return (int) length;
+        }
+
+        private Reader message() throws IOException {
+            int length = length();
+            Reader reader = new Reader(bytes, position, position + length);
+            position += length;
+            return reader;
+        }
+
+        private String string() throws IOException {
+            int length = length();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private void skip() throws IOException {
+            switch (tag & 7) {
+                case VARINT:
+                    varint();
+                    break;
+                case FIXED64:
+                    position += 8;
+                    break;
+                case BYTES:
+                    int length = length();
+                    position += length;
+                    break;
+                case FIXED32:
+                    position += 4;
+                    break;
+                default:
+                    throw new IOException(String.format("Unsupported wire type %s of field %s.", tag & 7, field()));
+            }
+            if (position > limit) {
+                throw new IOException("Truncated field " + field());
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiter for master requests.
+ *
+ * Besides limiting, it can be paused (e.g. on 429 Retry-After),
+ * and it keeps track of the request rate, as an exponentially weighted per-second average.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class RateLimiter {
+    private static final double RATE_WINDOW = 60.0; // seconds
+
+    private final double permitsPerSecond;
+    private final double burst;
+
+    private double tokens;
+    private long refilled;
+    private long pausedUntil;
+    private long requests;
+    private long throttled;
+    private double rate;
+    private long recorded;
+
+    /**
+     * @param permitsPerSecond permits per second, 0 or less for no limit
+     * @param burst max permits available at once
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilled = System.nanoTime();
+        this.pausedUntil = refilled;
+        this.recorded = refilled;
+    }
+
+    /**
+     * Wait for a permit.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        acquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * Wait for a permit, unless it would not be available before the deadline.
+     *
+     * @param deadlineMillis the deadline, in ms since the epoch
+     * @return true if acquired, false if the deadline would pass first, without waiting for it
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(long deadlineMillis) throws InterruptedException {
+        long wait;
+        boolean waited = false;
+        while ((wait = reserve()) > 0) {
+            if (waited == false) {
+                waited = true;
+                synchronized (this) {
+                    throttled++;
+                }
+            }
+            if (wait > TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis())) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return true;
+    }
+
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long pause = pausedUntil - now;
+        if (pause > 0) {
+            return pause;
+        }
+        if (permitsPerSecond > 0) {
+            tokens = Math.min(burst, tokens + (now - refilled) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+            if (tokens < 1) {
+                return (long) Math.ceil((1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            }
+            tokens -= 1;
+        }
+        rate = decay(now) + 1 / RATE_WINDOW;
+        recorded = now;
+        requests++;
+        return 0;
+    }
+
+    /**
+     * Hold back all requests for the given time.
+     *
+     * @param millis the pause in ms
+     */
+    public synchronized void pause(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+
+    private double decay(long now) {
+        return rate * Math.exp(-(now - recorded) / (RATE_WINDOW * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * @return requests per second, averaged over the last minute or so
+     */
+    public synchronized double getRate() {
+        return decay(System.nanoTime());
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of requests which had to wait for a permit
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/s, burst %s", permitsPerSecond, (int) burst);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Pods on the local node first.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SameNodeOrdering implements PeerOrdering {
+    public void order(List<Pod> pods, final String localNode, long deadline) {
+        if (localNode == null) {
+            return;
+        }
+        Collections.sort(pods, new Comparator<Pod>() {
+            public int compare(Pod p1, Pod p2) {
+                return rank(p1) - rank(p2);
+            }
+
+            private int rank(Pod pod) {
+                return localNode.equals(pod.getHost()) ? 0 : 1;
+            }
+        });
+    }
+}
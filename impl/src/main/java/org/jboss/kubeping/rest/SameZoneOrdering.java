@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pods on the local node first, then pods in the local zone.
+ * Zones come from node labels, which are listed once per cache period.
+ * If listing them fails, pods stay as listed until the period is over.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SameZoneOrdering implements PeerOrdering {
+    private static final Logger log = Logger.getLogger(SameZoneOrdering.class.getName());
+
+    private final Client client;
+    private final String zoneLabel;
+    private final long cachePeriod;
+
+    private volatile Map<String, String> zones;
+    private volatile long timestamp;
+
+    public SameZoneOrdering(Client client, String zoneLabel, long cachePeriod) {
+        this.client = client;
+        this.zoneLabel = zoneLabel;
+        this.cachePeriod = cachePeriod;
+    }
+
+    public void order(List<Pod> pods, final String localNode, long deadline) {
+        if (localNode == null) {
+            return;
+        }
+        final Map<String, String> zones = getZones(deadline);
+        if (zones == null) {
+            return;
+        }
+        final String localZone = zones.get(localNode);
+        Collections.sort(pods, new Comparator<Pod>() {
+            public int compare(Pod p1, Pod p2) {
+                return rank(p1) - rank(p2);
+            }
+
+            private int rank(Pod pod) {
+                if (localNode.equals(pod.getHost())) {
+                    return 0;
+                }
+                return (localZone != null && localZone.equals(zones.get(pod.getHost()))) ? 1 : 2;
+            }
+        });
+    }
+
+    /**
+     * @return zones per node, or null if the last listing failed
+     */
+    private Map<String, String> getZones(long deadline) {
+        Map<String, String> current = zones;
+        if (timestamp == 0 || System.currentTimeMillis() - timestamp > cachePeriod) {
+            try {
+                current = new HashMap<>();
+                for (Map.Entry<String, Map<String, String>> entry : client.getNodeLabels(deadline).entrySet()) {
+                    String zone = entry.getValue().get(zoneLabel);
+                    if (zone != null) {
+                        current.put(entry.getKey(), zone);
+                    }
+                }
+            } catch (Exception e) {
+                log.log(Level.WARNING, String.format("Failed to list node labels, not ordering by zone for %s ms.", cachePeriod), e);
+                current = null;
+            }
+            zones = current;
+            timestamp = System.currentTimeMillis();
+        }
+        return current;
+    }
+}
@@ -16,10 +16,54 @@
 
 package org.jboss.kubeping.rest;
 
+import org.jgroups.View;
+
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public interface Server {
     void start() throws Exception;
     void stop();
+
+    /**
+     * New local view, wakes up requests watching for changes.
+     *
+     * @param view the new view
+     */
+    void viewChanged(View view);
+
+    /**
+     * Serve discovery diagnostics, null to not serve them.
+     *
+     * @param timeline the timeline
+     */
+    void setTimeline(DiscoveryTimeline timeline);
+
+    /**
+     * Limit concurrent requests; the ones beyond threads plus queued get 503 with Retry-After.
+     *
+     * @param threads max requests handled at once
+     * @param queued max requests waiting to be handled
+     */
+    void setLimits(int threads, int queued);
+
+    /**
+     * How long to keep answering with 410 Gone once leaving, before the server actually stops.
+     *
+     * @param leaveGracePeriod the grace period in ms
+     */
+    void setLeaveGracePeriod(long leaveGracePeriod);
+
+    /**
+     * Token which lets a GET of /leave start leaving from anywhere, e.g. a kubelet running an httpGet preStop hook;
+     * without it only requests from loopback are accepted.
+     *
+     * @param leaveToken the token, null for none
+     */
+    void setLeaveToken(String leaveToken);
+
+    /**
+     * Start leaving: pings are answered with 410 Gone, so peers drop this node right away.
+     */
+    void leave();
 }
@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.kubeping.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.jgroups.Address;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.ViewId;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.Util;
+
+/**
+ * Wire format of PingData without the full view, so its size doesn't grow with the cluster:
+ * address, logical name, physical addresses, server flag and view id.
+ * The view id is enough for PingData to tell the coordinator.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SlimPingData {
+    public static final String CONTENT_TYPE = "application/x-kubeping-slim";
+
+    private static final byte VERSION = 1;
+    private static final byte SERVER = 1;
+    private static final byte VIEW_ID = 1 << 1;
+
+    public static byte[] toBytes(PingData data) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        writeTo(data, out);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    public static void writeTo(PingData data, DataOutput out) throws Exception {
+        ViewId viewId = data.getViewId();
+        if (viewId == null) {
+            View view = data.getView();
+            viewId = (view != null) ? view.getViewId() : null;
+        }
+        byte flags = 0;
+        if (data.isServer()) {
+            flags |= SERVER;
+        }
+        if (viewId != null) {
+            flags |= VIEW_ID;
+        }
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        Util.writeAddress(data.getAddress(), out);
+        Util.writeString(data.getLogicalName(), out);
+        Collection<PhysicalAddress> physicalAddresses = data.getPhysicalAddrs();
+        out.writeShort(physicalAddresses != null ? physicalAddresses.size() : 0);
+        if (physicalAddresses != null) {
+            for (PhysicalAddress physicalAddress : physicalAddresses) {
+                Util.writeAddress(physicalAddress, out);
+            }
+        }
+        if (viewId != null) {
+            viewId.writeTo(out);
+        }
+    }
+
+    /**
+     * Text form, e.g. to store it as a pod annotation.
+     */
+    public static String toBase64(PingData data) throws Exception {
+        return Base64.encode(toBytes(data));
+    }
+
+    public static PingData fromBase64(String value) throws Exception {
+        byte[] bytes = Base64.decode(value);
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static PingData readFrom(DataInput in) throws Exception {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported slim PingData version: " + version);
+        }
+        byte flags = in.readByte();
+        Address address = Util.readAddress(in);
+        String logicalName = Util.readString(in);
+        int size = in.readShort();
+        List<PhysicalAddress> physicalAddresses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            physicalAddresses.add((PhysicalAddress) Util.readAddress(in));
+        }
+        ViewId viewId = null;
+        if ((flags & VIEW_ID) != 0) {
+            viewId = new ViewId();
+            viewId.readFrom(in);
+        }
+        return new PingData(address, null, viewId, (flags & SERVER) != 0, logicalName, physicalAddresses);
+    }
+}
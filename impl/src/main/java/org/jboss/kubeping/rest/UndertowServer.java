@@ -19,11 +19,15 @@ package org.jboss.kubeping.rest;
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 
-import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 import org.jgroups.Channel;
-import org.jgroups.protocols.PingData;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -35,7 +39,7 @@ public class UndertowServer extends AbstractServer {
         super(port, channel);
     }
 
-    public void start() throws Exception {
+    protected void doStart() throws Exception {
         Undertow.Builder builder = Undertow.builder();
         builder.addHttpListener(port, "0.0.0.0"); // bind to all
         builder.setHandler(new Handler());
@@ -43,15 +47,72 @@ public class UndertowServer extends AbstractServer {
         undertow.start();
     }
 
-    public void stop() {
+    protected void doStop() {
         undertow.stop();
     }
 
     private class Handler implements HttpHandler {
         public void handleRequest(HttpServerExchange exchange) throws Exception {
-            exchange.startBlocking();
-            PingData data = Utils.createPingData(channel);
-            data.writeTo(new DataOutputStream(exchange.getOutputStream()));
+            if (exchange.isInIoThread()) {
+                if (admit() == false) {
+                    // answered right away, nothing is queued for the workers
+                    exchange.setResponseCode(503);
+                    exchange.getResponseHeaders().put(new HttpString("Retry-After"), reject());
+                    exchange.endExchange();
+                    return;
+                }
+                try {
+                    exchange.dispatch(this);
+                } catch (RuntimeException e) {
+                    release();
+                    throw e;
+                }
+                return;
+            }
+            try {
+                exchange.startBlocking();
+                handle(new ExchangeAdapter(exchange));
+            } finally {
+                release();
+            }
+        }
+    }
+
+    private static class ExchangeAdapter implements Exchange {
+        private final HttpServerExchange exchange;
+
+        private ExchangeAdapter(HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        public String getPath() {
+            return exchange.getRequestPath();
+        }
+
+        public String getQuery() {
+            String query = exchange.getQueryString();
+            return (query != null && query.length() > 0) ? query : null;
+        }
+
+        public String getRequestHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(new HttpString(name));
+        }
+
+        public InetAddress getRemoteAddress() {
+            InetSocketAddress address = exchange.getSourceAddress();
+            return (address != null) ? address.getAddress() : null;
+        }
+
+        public void setResponseHeader(String name, String value) {
+            exchange.getResponseHeaders().put(new HttpString(name), value);
+        }
+
+        public void send(int status, byte[] body) throws IOException {
+            exchange.setResponseCode(status);
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, body.length);
+            try (OutputStream outputStream = exchange.getOutputStream()) {
+                outputStream.write(body);
+            }
         }
     }
 }
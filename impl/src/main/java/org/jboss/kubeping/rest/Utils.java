@@ -17,6 +17,7 @@
 package org.jboss.kubeping.rest;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
@@ -26,7 +27,9 @@ import org.jgroups.Channel;
 import org.jgroups.Event;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.View;
+import org.jgroups.ViewId;
 import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -64,16 +67,71 @@ public class Utils {
     /**
      * Create ping data from channel.
      *
+     * A node is a server once it is a member of an installed view;
+     * the coordinator flag is then derived by PingData from the view.
+     *
      * @param channel the channel
      * @return ping data
      */
     public static PingData createPingData(Channel channel) {
+        return createPingData(channel, channel.getView());
+    }
+
+    /**
+     * Create ping data from channel, with the given view.
+     *
+     * @param channel the channel
+     * @param view the view
+     * @return ping data
+     */
+    public static PingData createPingData(Channel channel, View view) {
         Address address = channel.getAddress();
-        View view = channel.getView();
-        boolean is_server = false;
+        boolean is_server = channel.isConnected() && view != null && view.containsMember(address);
         String logical_name = channel.getName();
         PhysicalAddress paddr = (PhysicalAddress) channel.down(new Event(Event.GET_PHYSICAL_ADDRESS, address));
         return new PingData(address, view, is_server, logical_name, Collections.singleton(paddr));
     }
 
+    /**
+     * Create entity tag of ping data.
+     *
+     * The data only changes with the view, the member's address, its physical address,
+     * or its server and coordinator flags, so the tag is derived from those, plus the wire format.
+     * A restarted member gets a new address, so a tag of its previous incarnation doesn't match.
+     *
+     * @param data the ping data
+     * @param slim is it slim format
+     * @return quoted entity tag
+     */
+    public static String createETag(PingData data, boolean slim) {
+        View view = data.getView();
+        ViewId viewId = (view != null) ? view.getViewId() : data.getViewId();
+        Collection<PhysicalAddress> paddrs = data.getPhysicalAddrs();
+        Address address = data.getAddress();
+        int flags = (data.isServer() ? 1 : 0) | (data.isCoord() ? 2 : 0);
+        return String.format("\"%x-%x-%x-%x-%x%s\"",
+            (viewId != null) ? viewId.getId() : 0,
+            (viewId != null) ? viewId.hashCode() : 0,
+            (address != null) ? address.hashCode() : 0,
+            (paddrs != null) ? paddrs.hashCode() : 0,
+            flags,
+            slim ? "-s" : "");
+    }
+
+    /**
+     * Create ping data which only carries a transport address.
+     *
+     * Discovery then sends its requests straight to that address,
+     * the same way it does for a static initial hosts list.
+     *
+     * @param host the host
+     * @param port the transport port
+     * @return ping data
+     * @throws Exception for any error
+     */
+    public static PingData createPingData(String host, int port) throws Exception {
+        PhysicalAddress paddr = new IpAddress(host, port);
+        return new PingData(null, null, false, null, Collections.singleton(paddr));
+    }
+
 }
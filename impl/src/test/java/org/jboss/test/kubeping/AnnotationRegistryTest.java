@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.Pod;
+import org.jboss.test.kubeping.support.FakeMaster;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class AnnotationRegistryTest {
+    private static final String ANNOTATION = "kubeping.jboss.org/ping-data";
+
+    private FakeMaster master;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        master = new FakeMaster();
+        master.addPod("pod-1", "10.0.0.1");
+        master.addPod("pod-2", "10.0.0.2");
+        master.start();
+        client = new Client(master.getHost(), master.getPort(), "v1beta3", null);
+    }
+
+    @After
+    public void tearDown() {
+        master.stop();
+    }
+
+    @Test
+    public void testPublishAndRemove() throws Exception {
+        client.annotatePod("default", "pod-1", ANNOTATION, "AQID");
+        client.annotatePod("default", "pod-2", ANNOTATION, "BAUG");
+        Assert.assertEquals(2, master.getPatches());
+        Assert.assertEquals("AQID", master.getAnnotations("pod-1").get(ANNOTATION));
+
+        // a single list call carries every member's data
+        List<Pod> pods = client.getPods("default", null);
+        Assert.assertEquals(1, master.getLists());
+        Assert.assertEquals("AQID", pods.get(0).getAnnotations().get(ANNOTATION));
+        Assert.assertEquals("BAUG", pods.get(1).getAnnotations().get(ANNOTATION));
+
+        client.annotatePod("default", "pod-1", ANNOTATION, null);
+        Assert.assertNull(master.getAnnotations("pod-1").get(ANNOTATION));
+        pods = client.getPods("default", null);
+        Assert.assertNull(pods.get(0).getAnnotations().get(ANNOTATION));
+        Assert.assertEquals("BAUG", pods.get(1).getAnnotations().get(ANNOTATION));
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        String value = "say \"hi\" \\ {there}";
+        client.annotatePod("default", "pod-1", "kubeping.jboss.org/\"quoted\"", value);
+        Assert.assertEquals(value, master.getAnnotations("pod-1").get("kubeping.jboss.org/\"quoted\""));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownPod() throws Exception {
+        client.annotatePod("default", "pod-3", ANNOTATION, "AQID");
+    }
+}
@@ -16,13 +16,26 @@
 
 package org.jboss.test.kubeping;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.jboss.dmr.ModelNode;
 import org.jboss.kubeping.rest.Client;
 import org.jboss.kubeping.rest.Container;
+import org.jboss.kubeping.rest.Context;
 import org.jboss.kubeping.rest.Pod;
 import org.jboss.kubeping.rest.Port;
+import org.jboss.kubeping.rest.Utils;
 import org.jboss.test.kubeping.support.TestClient;
+import org.jgroups.Address;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.ViewId;
+import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.UUID;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -49,4 +62,74 @@ public class ClientTest {
         Assert.assertEquals(80, port.getContainerPort().intValue());
     }
 
+    @Test
+    public void testPodStatus() throws Exception {
+        final String manifest = "\"desiredState\": {\"manifest\": {\"containers\": []}}, ";
+        final String json = "{\"items\": [" +
+            "{" + manifest + "\"currentState\": {\"host\": \"host-1\", \"podIP\": \"10.0.0.1\", \"status\": \"Running\"," +
+            " \"conditions\": [{\"kind\": \"Ready\", \"status\": \"Full\"}]}}," +
+            "{" + manifest + "\"currentState\": {\"host\": \"host-2\", \"status\": \"Pending\"}}," +
+            "{" + manifest + "\"metadata\": {\"deletionTimestamp\": \"2015-01-28T10:00:00Z\"}," +
+            " \"currentState\": {\"host\": \"host-3\", \"podIP\": \"10.0.0.3\"}," +
+            " \"status\": {\"phase\": \"Running\", \"conditions\": [{\"type\": \"Ready\", \"status\": \"False\"}]}}" +
+            "]}";
+        Client client = new Client() {
+            @Override
+            protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+                return ModelNode.fromJSONString(json);
+            }
+        };
+        List<Pod> pods = client.getPods();
+        Assert.assertEquals(3, pods.size());
+
+        Pod running = pods.get(0);
+        Assert.assertTrue(running.isRunning());
+        Assert.assertTrue(running.isReady());
+        Assert.assertFalse(running.isTerminating());
+
+        Pod pending = pods.get(1);
+        Assert.assertNull(pending.getPodIP());
+        Assert.assertFalse(pending.isRunning());
+        Assert.assertTrue(pending.isReady());
+
+        Pod terminating = pods.get(2);
+        Assert.assertTrue(terminating.isRunning());
+        Assert.assertFalse(terminating.isReady());
+        Assert.assertTrue(terminating.isTerminating());
+    }
+
+    @Test
+    public void testTransportPingData() throws Exception {
+        final String json = "{\"items\": [{\"desiredState\": {\"manifest\": {\"containers\": [{\"name\": \"wildfly\"," +
+            " \"ports\": [{\"name\": \"ping\", \"containerPort\": 8888}, {\"name\": \"jgroups\", \"containerPort\": 7600}]}]}}," +
+            " \"currentState\": {\"host\": \"host-1\", \"podIP\": \"127.0.0.1\"}}]}";
+        Client client = new Client() {
+            @Override
+            protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+                return ModelNode.fromJSONString(json);
+            }
+        };
+        Container container = client.getPods().get(0).getContainers().get(0);
+        Assert.assertTrue(client.accept(new Context(container, "jgroups")));
+        PingData data = Utils.createPingData(container.getPodIP(), container.getPort("jgroups").getContainerPort());
+        Assert.assertNull(data.getAddress());
+        Assert.assertFalse(data.isServer());
+        Assert.assertEquals(Collections.singletonList(new IpAddress("127.0.0.1", 7600)), new ArrayList<>(data.getPhysicalAddrs()));
+    }
+
+    @Test
+    public void testETag() throws Exception {
+        Address coordinator = UUID.randomUUID();
+        View view = new View(new ViewId(coordinator, 1), Collections.singletonList(coordinator));
+        List<PhysicalAddress> physicalAddresses = Collections.<PhysicalAddress>singletonList(new IpAddress("10.1.2.3", 7800));
+        PingData data = new PingData(coordinator, view, true, "node-0", physicalAddresses);
+        String etag = Utils.createETag(data, true);
+        Assert.assertEquals(etag, Utils.createETag(new PingData(coordinator, view, true, "node-0", physicalAddresses), true));
+        Assert.assertFalse(etag.equals(Utils.createETag(data, false)));
+
+        // restarted on the same IP, with the same view id, it is a different member
+        Assert.assertFalse(etag.equals(Utils.createETag(new PingData(UUID.randomUUID(), view, true, "node-0", physicalAddresses), true)));
+        // no longer a server, hence no longer the coordinator either
+        Assert.assertFalse(etag.equals(Utils.createETag(new PingData(coordinator, view, false, "node-0", physicalAddresses), true)));
+    }
 }
@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.PeerLeavingException;
+import org.jboss.test.kubeping.support.TestKubePing;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class ClientTimeoutTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        // never answers, until the test is done
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        Client client = new Client("127.0.0.1", "1234", "v1beta1", null);
+        long start = System.currentTimeMillis();
+        try {
+            client.getPingData("127.0.0.1", server.getAddress().getPort(), start + 500);
+            Assert.fail("Should not get ping data from hung server");
+        } catch (IllegalStateException expected) {
+        }
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took < 3000);
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        Client client = new Client("127.0.0.1", "1234", "v1beta1", null);
+        client.setTimeouts(1000, 200);
+        long start = System.currentTimeMillis();
+        try {
+            // each attempt gives up after the read timeout, the deadline bounds the retries
+            client.getPingData("127.0.0.1", server.getAddress().getPort(), start + 1000);
+            Assert.fail("Should not get ping data from hung server");
+        } catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("attempt(s)"));
+        }
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took < 3000);
+    }
+
+    @Test
+    public void testSlowMaster() throws Exception {
+        Client client = new Client("127.0.0.1", String.valueOf(server.getAddress().getPort()), "v1beta3", null);
+        TestKubePing ping = new TestKubePing(client);
+        ping.setTransportPortName("jgroups");
+        ping.setDiscoveryTimeout(1000);
+        ping.setDiscoveryInitialDelay(400);
+        ping.start();
+        try {
+            // the delay, and every retry of the pod list, fit into the round's budget
+            long start = System.currentTimeMillis();
+            Assert.assertTrue(ping.readAll("test").isEmpty());
+            long took = System.currentTimeMillis() - start;
+            Assert.assertTrue("Took " + took, took < 2000);
+            Assert.assertNull(ping.getMembership());
+        } finally {
+            ping.stop();
+        }
+    }
+
+    @Test
+    public void testLeavingPeer() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer leaving = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        leaving.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(410, -1);
+                exchange.close();
+            }
+        });
+        leaving.start();
+        try {
+            Client client = new Client("127.0.0.1", "1234", "v1beta1", null);
+            long start = System.currentTimeMillis();
+            try {
+                client.getPingData("127.0.0.1", leaving.getAddress().getPort(), start + 10000);
+                Assert.fail("Should not get ping data from leaving peer");
+            } catch (PeerLeavingException expected) {
+            }
+            // no retries
+            Assert.assertEquals(1, requests.get());
+            long took = System.currentTimeMillis() - start;
+            Assert.assertTrue("Took " + took, took < 1000);
+        } finally {
+            leaving.stop(0);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.kubeping.MembershipStore;
+import org.jboss.test.kubeping.support.PodListClient;
+import org.jboss.test.kubeping.support.TestKubePing;
+import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Direct discovery, pods exposing only their transport port.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DirectDiscoveryTest {
+    private PodListClient client;
+    private TestKubePing ping;
+
+    @Before
+    public void setUp() throws Exception {
+        client = new PodListClient()
+            .addPod("pod-1", "10.0.0.1", "jgroups", 7600)
+            .addPod("pod-2", "10.0.0.2", "jgroups", 7600);
+        ping = new TestKubePing(client);
+        ping.setTransportPortName("jgroups");
+    }
+
+    @After
+    public void tearDown() {
+        ping.stop();
+    }
+
+    private static List<IpAddress> addresses(List<PingData> members) {
+        List<IpAddress> addresses = new ArrayList<>();
+        for (PingData data : members) {
+            addresses.add((IpAddress) data.getPhysicalAddrs().iterator().next());
+        }
+        return addresses;
+    }
+
+    @Test
+    public void testTransportPortOnly() throws Exception {
+        ping.start();
+        List<PingData> members = ping.readAll("test");
+        Assert.assertEquals(2, members.size());
+        List<IpAddress> expected = new ArrayList<>();
+        expected.add(new IpAddress("10.0.0.1", 7600));
+        expected.add(new IpAddress("10.0.0.2", 7600));
+        Assert.assertEquals(expected, addresses(members));
+        Assert.assertTrue(ping.getMembership().isComplete());
+    }
+
+    @Test
+    public void testSampleIgnored() throws Exception {
+        for (int i = 3; i <= 9; i++) {
+            client.addPod("pod-" + i, "10.0.0." + i, "jgroups", 7600);
+        }
+        // there is no one to sample, every pod is a member
+        ping.setDiscoverySample(2);
+        ping.start();
+        Assert.assertEquals(9, ping.readAll("test").size());
+        Assert.assertTrue(ping.getMembership().isComplete());
+    }
+
+    @Test
+    public void testMembershipFile() throws Exception {
+        File file = File.createTempFile("kubeping", ".members");
+        Assert.assertTrue(file.delete());
+        try {
+            ping.setMembershipFile(file.getPath());
+            ping.start();
+            Assert.assertEquals(2, ping.readAll("test").size());
+            ping.stop();
+            // keyed by the transport port, as that is what direct discovery talks to
+            Assert.assertEquals(Arrays.asList("10.0.0.1:7600", "10.0.0.2:7600"), new ArrayList<>(new MembershipStore(file).load().keySet()));
+
+            // restarted while the master is down, the remembered transport addresses are used as is
+            client.setFailing(true);
+            ping = new TestKubePing(client);
+            ping.setTransportPortName("jgroups");
+            ping.setMembershipFile(file.getPath());
+            ping.start();
+            List<IpAddress> expected = new ArrayList<>();
+            expected.add(new IpAddress("10.0.0.1", 7600));
+            expected.add(new IpAddress("10.0.0.2", 7600));
+            Assert.assertEquals(expected, addresses(ping.readAll("test")));
+            Assert.assertNull(ping.getMembership());
+        } finally {
+            file.delete();
+        }
+    }
+}
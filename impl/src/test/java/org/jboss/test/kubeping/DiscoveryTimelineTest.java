@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.DiscoveryTimeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DiscoveryTimelineTest {
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        DiscoveryTimeline timeline = new DiscoveryTimeline(3);
+        for (int i = 0; i < 5; i++) {
+            DiscoveryTimeline.Round round = new DiscoveryTimeline.Round("cluster-" + i);
+            round.finish(i, true);
+            timeline.add(round);
+        }
+        List<ModelNode> rounds = timeline.toModelNode().get("rounds").asList();
+        Assert.assertEquals(3, rounds.size());
+        Assert.assertEquals("cluster-4", rounds.get(0).get("cluster").asString());
+        Assert.assertEquals("cluster-2", rounds.get(2).get("cluster").asString());
+        Assert.assertEquals(5, timeline.toModelNode().get("rounds-total").asLong());
+    }
+
+    @Test
+    public void testRound() throws Exception {
+        DiscoveryTimeline timeline = new DiscoveryTimeline(10);
+        DiscoveryTimeline.Round round = new DiscoveryTimeline.Round("test");
+        round.podList(12, 3);
+        round.fetch("10.0.0.1:8888", "ok", 5, 0);
+        round.fetch("10.0.0.2:8888", "not-modified", 2, 1);
+        round.fetch("10.0.0.3:8888", "cut-off", 0, 2);
+        round.finish(2, false);
+        timeline.add(round);
+
+        ModelNode node = timeline.toModelNode().get("rounds").asList().get(0);
+        Assert.assertEquals(12, node.get("pod-list-ms").asLong());
+        Assert.assertEquals(3, node.get("pods").asInt());
+        Assert.assertEquals(2, node.get("members").asInt());
+        Assert.assertFalse(node.get("complete").asBoolean());
+        Assert.assertEquals(3, node.get("retries").asLong());
+        List<ModelNode> fetches = node.get("fetches").asList();
+        Assert.assertEquals(3, fetches.size());
+        Assert.assertEquals("not-modified", fetches.get(1).get("outcome").asString());
+        Assert.assertEquals("10.0.0.3:8888", fetches.get(2).get("peer").asString());
+        Assert.assertFalse(node.has("failure"));
+    }
+}
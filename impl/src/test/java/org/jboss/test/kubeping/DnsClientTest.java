@@ -0,0 +1,159 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.kubeping.KubePing;
+import org.jboss.kubeping.dns.DnsResolver;
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.Container;
+import org.jboss.kubeping.rest.Context;
+import org.jboss.kubeping.rest.DnsClient;
+import org.jboss.kubeping.rest.Pod;
+import org.jboss.test.kubeping.support.TestDnsServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DnsClientTest {
+    private static final String SERVICE = "_ping._tcp.cluster.default.svc.cluster.local";
+
+    private TestDnsServer dns;
+
+    @Before
+    public void setUp() throws Exception {
+        dns = new TestDnsServer();
+        dns.addSrv(SERVICE, 30, 8888, "pod-1.cluster.default.svc.cluster.local");
+        dns.addSrv(SERVICE, 30, 9999, "pod-2.cluster.default.svc.cluster.local");
+        dns.addA("pod-1.cluster.default.svc.cluster.local", 30, "10.1.0.1");
+        dns.addA("pod-2.cluster.default.svc.cluster.local", 30, "10.1.0.2");
+        dns.addA("other.default.svc.cluster.local", 1, "10.1.0.3");
+        dns.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dns.stop();
+    }
+
+    private Client createClient(String... names) throws Exception {
+        DnsResolver resolver = new DnsResolver(DnsResolver.parseServers(dns.getServer()), 2000);
+        return new DnsClient(resolver, Arrays.asList(names), "ping", 8888);
+    }
+
+    @Test
+    public void testSrvPods() throws Exception {
+        Client client = createClient(SERVICE);
+        List<Pod> pods = client.getPods();
+        Assert.assertEquals(2, pods.size());
+        Assert.assertEquals("10.1.0.1", pods.get(0).getPodIP());
+        Container container = pods.get(1).getContainers().get(0);
+        Assert.assertTrue(client.accept(new Context(container, "ping")));
+        Assert.assertEquals(9999, container.getPort("ping").getContainerPort().intValue());
+        // target addresses come with the SRV answer
+        Assert.assertEquals(1, dns.getQueries());
+
+        client.getPods();
+        Assert.assertEquals(1, dns.getQueries());
+    }
+
+    @Test
+    public void testTtlExpiry() throws Exception {
+        Client client = createClient("other.default.svc.cluster.local");
+        List<Pod> pods = client.getPods();
+        Assert.assertEquals(1, pods.size());
+        Assert.assertEquals(8888, pods.get(0).getContainers().get(0).getPort("ping").getContainerPort().intValue());
+        client.getPods();
+        Assert.assertEquals(1, dns.getQueries());
+
+        Thread.sleep(1100);
+        client.getPods();
+        Assert.assertEquals(2, dns.getQueries());
+    }
+
+    @Test
+    public void testSeveralNames() throws Exception {
+        dns.setAdditionals(false);
+        Client client = createClient(SERVICE, "other.default.svc.cluster.local");
+        List<Pod> pods = client.getPods();
+        Assert.assertEquals(3, pods.size());
+        // SRV, plus A lookups for both targets and the plain name
+        Assert.assertEquals(4, dns.getQueries());
+    }
+
+    @Test
+    public void testMasterFeaturesRejected() throws Exception {
+        KubePing ping = new KubePing();
+        ping.setDnsNames(SERVICE);
+        ping.setDnsServers(dns.getServer());
+        ping.setPeerOrdering("same-zone");
+        ping.setSharedPodCache(true);
+        try {
+            ping.start();
+            Assert.fail("Should not start without a master");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("peerOrdering=same-zone"));
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("sharedPodCache"));
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        // a server which never answers
+        try (DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            DnsResolver resolver = new DnsResolver(Collections.singletonList((InetSocketAddress) silent.getLocalSocketAddress()), 5000);
+            Client client = new DnsClient(resolver, Arrays.asList(SERVICE), "ping", 8888);
+            try {
+                long start = System.nanoTime();
+                try {
+                    client.getPods(null, null, System.currentTimeMillis() + 300);
+                    Assert.fail("Should not be here.");
+                } catch (IOException expected) {
+                }
+                long took = (System.nanoTime() - start) / 1000000;
+                Assert.assertTrue("Took " + took, took < 2000);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        DnsResolver resolver = new DnsResolver(DnsResolver.parseServers(dns.getServer()), 2000);
+        Client client = new DnsClient(resolver, Arrays.asList(SERVICE), "ping", 8888);
+        Assert.assertEquals(2, client.getPods().size());
+        // the resolver's threads go with the client
+        client.close();
+        try {
+            resolver.lookupAddresses(Arrays.asList("other.default.svc.cluster.local"));
+            Assert.fail("Should not be here.");
+        } catch (IOException expected) {
+        }
+    }
+}
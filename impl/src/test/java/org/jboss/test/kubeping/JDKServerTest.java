@@ -16,8 +16,17 @@
 
 package org.jboss.test.kubeping;
 
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
 import org.jboss.kubeping.KubePing;
 import org.jboss.kubeping.rest.JDKServerFactory;
+import org.junit.Assert;
+import org.junit.Test;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -25,5 +34,49 @@ import org.jboss.kubeping.rest.JDKServerFactory;
 public class JDKServerTest extends ServerTestBase {
     protected void applyConfig(KubePing ping) {
         ping.setFactory(new JDKServerFactory());
+        ping.setServerThreads(2);
+        ping.setServerQueue(0);
+    }
+
+    @Test
+    public void testOverload() throws Exception {
+        // requests which never finish keep both threads busy, the third one the reject thread
+        Socket[] slow = new Socket[3];
+        try {
+            for (int i = 0; i < slow.length; i++) {
+                slow[i] = new Socket(InetAddress.getLoopbackAddress(), 8888);
+                OutputStream out = slow[i].getOutputStream();
+                out.write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            Thread.sleep(500);
+
+            // the dispatcher is not held by the half sent request, the reject thread only for a while
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+            connection.setReadTimeout(5000);
+            Assert.assertEquals(503, connection.getResponseCode());
+            Assert.assertEquals("1", connection.getHeaderField("Retry-After"));
+
+            // its connection is closed
+            slow[2].setSoTimeout(5000);
+            Assert.assertEquals(-1, slow[2].getInputStream().read());
+        } finally {
+            for (Socket socket : slow) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        KubePing ping = (KubePing) channels[0].getProtocolStack().findProtocol(KubePing.class);
+        Assert.assertTrue(ping.getPingRequestsRejected() > 0);
+
+        // threads are free again
+        int status = 0;
+        for (int i = 0; i < 20 && status != 200; i++) {
+            Thread.sleep(100);
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+            status = connection.getResponseCode();
+        }
+        Assert.assertEquals(200, status);
     }
 }
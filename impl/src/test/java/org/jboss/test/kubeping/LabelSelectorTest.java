@@ -0,0 +1,85 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.kubeping.KubePing;
+import org.jboss.kubeping.rest.LabelSelector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LabelSelectorTest {
+    private static Map<String, String> labels() {
+        Map<String, String> labels = new HashMap<>();
+        labels.put("name", "wildfly");
+        labels.put("tier", "web");
+        return labels;
+    }
+
+    @Test
+    public void testSets() throws Exception {
+        Map<String, String> labels = labels();
+        Assert.assertTrue(LabelSelector.parse("tier in (web,api)").matches(labels));
+        Assert.assertTrue(LabelSelector.parse("name=wildfly, tier in ( api , web ),track notin (canary)").matches(labels));
+        Assert.assertTrue(LabelSelector.parse("tier in(web)").matches(labels));
+        Assert.assertFalse(LabelSelector.parse("tier in (api,db)").matches(labels));
+        Assert.assertFalse(LabelSelector.parse("tier notin (web,api)").matches(labels));
+        // a missing label is in no set
+        Assert.assertFalse(LabelSelector.parse("track in (stable)").matches(labels));
+        Assert.assertTrue(LabelSelector.parse("track notin (stable)").matches(labels));
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        String[] queries = {
+            "tier in (web,api",
+            "tier in web,api)",
+            "tier in ((web))",
+            "tier (web)",
+            "tier among (web)",
+            "tier in ()",
+            "tier in (web,)",
+            "tier in (web) extra",
+            "version>1",
+            "name=wildfly=ee",
+            "=wildfly",
+        };
+        for (String query : queries) {
+            try {
+                LabelSelector.parse(query);
+                Assert.fail("Should not parse: " + query);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testRejectedOnStart() throws Exception {
+        KubePing ping = new KubePing();
+        ping.setLabelsQuery("tier in (web,api");
+        try {
+            ping.start();
+            Assert.fail("Should not start.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
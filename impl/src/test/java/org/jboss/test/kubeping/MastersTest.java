@@ -0,0 +1,111 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.kubeping.rest.Masters;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MastersTest {
+    private static final String A = "http://master-a:8080/api/v1beta3";
+    private static final String B = "http://master-b:8080/api/v1beta3";
+
+    private static class TestRequest implements Masters.Request<String> {
+        private final Map<String, Long> delays = new ConcurrentHashMap<>();
+        private final Map<String, Boolean> failing = new ConcurrentHashMap<>();
+
+        public String execute(String rootURL) throws Exception {
+            Long delay = delays.get(rootURL);
+            if (delay != null) {
+                Thread.sleep(delay);
+            }
+            if (failing.containsKey(rootURL)) {
+                throw new IOException("Down: " + rootURL);
+            }
+            return rootURL;
+        }
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        Masters masters = new Masters(Arrays.asList(A, B));
+        TestRequest request = new TestRequest();
+        Assert.assertEquals(A, masters.execute(request, false));
+
+        request.failing.put(A, true);
+        Assert.assertEquals(B, masters.execute(request, false));
+        Assert.assertEquals(1, masters.getFailovers());
+
+        // A is now unhealthy, so B goes first
+        request.failing.remove(A);
+        Assert.assertEquals(B, masters.execute(request, false));
+        Assert.assertEquals(1, masters.getFailovers());
+    }
+
+    @Test
+    public void testAllDown() throws Exception {
+        Masters masters = new Masters(Arrays.asList(A, B));
+        TestRequest request = new TestRequest();
+        request.failing.put(A, true);
+        request.failing.put(B, true);
+        try {
+            masters.execute(request, true);
+            Assert.fail("All masters are down");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        Masters masters = new Masters(Arrays.asList(A, B));
+        TestRequest request = new TestRequest();
+        request.delays.put(A, 10L);
+        request.delays.put(B, 50L);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(A, masters.execute(request, true));
+        }
+        // only the slowest few percent get hedged
+        long hedged = masters.getHedged();
+        Assert.assertTrue("Hedged " + hedged, hedged < 5);
+
+        // A stalls, B answers long before A would
+        request.delays.put(A, 3000L);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(B, masters.execute(request, true));
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took < 1000);
+        Assert.assertEquals(hedged + 1, masters.getHedged());
+    }
+
+    @Test
+    public void testNoHedging() throws Exception {
+        Masters masters = new Masters(Arrays.asList(A, B));
+        masters.setHedgePercentile(0);
+        TestRequest request = new TestRequest();
+        request.delays.put(A, 200L);
+        Assert.assertEquals(A, masters.execute(request, true));
+        Assert.assertEquals(0, masters.getHedged());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.kubeping.MembershipStore;
+import org.jboss.kubeping.rest.Utils;
+import org.jgroups.protocols.PingData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MembershipStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("kubeping-membership", ".bin");
+        Assert.assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        MembershipStore store = new MembershipStore(file);
+        Assert.assertTrue(store.load().isEmpty());
+
+        Map<String, PingData> peers = new LinkedHashMap<>();
+        peers.put("10.1.0.2:8888", Utils.createPingData("10.1.0.2", 7600));
+        peers.put("10.1.0.1:8888", Utils.createPingData("10.1.0.1", 7600));
+        Assert.assertTrue(store.save(peers));
+        Assert.assertFalse(store.save(peers));
+
+        Map<String, PingData> loaded = new MembershipStore(file).load();
+        Assert.assertEquals(new ArrayList<>(peers.keySet()), new ArrayList<>(loaded.keySet()));
+        for (Map.Entry<String, PingData> peer : peers.entrySet()) {
+            Assert.assertEquals(new ArrayList<>(peer.getValue().getPhysicalAddrs()), new ArrayList<>(loaded.get(peer.getKey()).getPhysicalAddrs()));
+        }
+
+        peers.remove("10.1.0.2:8888");
+        Assert.assertTrue(store.save(peers));
+        Assert.assertEquals(1, new MembershipStore(file).load().size());
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x4b, 0x50, 0x4d, 0x31, 0, 0, 0, 3, 0, 0});
+        }
+        try {
+            new MembershipStore(file).load();
+            Assert.fail("Should not load truncated file");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.kubeping.Membership;
+import org.jboss.test.kubeping.support.PodListClient;
+import org.jboss.test.kubeping.support.TestKubePing;
+import org.jgroups.protocols.PingData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shared, stale and incomplete discovery rounds.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MembershipTest {
+    private PodListClient client;
+    private TestKubePing ping;
+
+    @Before
+    public void setUp() throws Exception {
+        client = new PodListClient()
+            .addPod("pod-1", "10.0.0.1", "jgroups", 7600)
+            .addPod("pod-2", "10.0.0.2", "jgroups", 7600);
+        ping = new TestKubePing(client);
+        ping.setTransportPortName("jgroups");
+    }
+
+    @After
+    public void tearDown() {
+        ping.stop();
+    }
+
+    @Test
+    public void testConcurrentCallsShareRound() throws Exception {
+        ping.start();
+        client.setDelay(500);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future[] futures = new Future[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<List<PingData>>() {
+                    public List<PingData> call() throws Exception {
+                        return ping.readAll("test");
+                    }
+                });
+            }
+            for (Future future : futures) {
+                Assert.assertEquals(2, ((List) future.get()).size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, client.getLists());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        ping.setStaleWhileRevalidate(10000);
+        ping.start();
+        Assert.assertEquals(2, ping.readAll("test").size());
+        Membership first = ping.getMembership();
+
+        client.addPod("pod-3", "10.0.0.3", "jgroups", 7600);
+        client.setDelay(300);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(2, ping.readAll("test").size());
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took < 250);
+
+        // the new round completes in the background
+        for (int i = 0; i < 50 && ping.getMembership() == first; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(2, client.getLists());
+        Assert.assertEquals(3, ping.getMembership().getData().size());
+        Assert.assertEquals(3, ping.readAll("test").size());
+    }
+
+    @Test
+    public void testIncompleteNotCached() throws Exception {
+        ping.start();
+        Assert.assertEquals(2, ping.readAll("test").size());
+        Membership complete = ping.getMembership();
+        Assert.assertTrue(complete.isComplete());
+
+        client.setFailing(true);
+        Assert.assertTrue(ping.readAll("test").isEmpty());
+        Assert.assertSame(complete, ping.getMembership());
+    }
+
+    @Test
+    public void testIncompleteNotServedStale() throws Exception {
+        ping.setStaleWhileRevalidate(10000);
+        ping.start();
+        client.setFailing(true);
+        Assert.assertTrue(ping.readAll("test").isEmpty());
+        Assert.assertNull(ping.getMembership());
+
+        // nothing stale to serve, so the next call waits for its own round
+        client.setFailing(false);
+        Assert.assertEquals(2, ping.readAll("test").size());
+        Assert.assertTrue(ping.getMembership().isComplete());
+        Assert.assertEquals(2, client.getLists());
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.PeerLeavingException;
+import org.jboss.kubeping.rest.SlimPingData;
+import org.jboss.kubeping.rest.Utils;
+import org.jboss.test.kubeping.support.PodFarm;
+import org.jgroups.protocols.PingData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class NioHttpClientTest {
+    private final Client client = new Client() {
+    };
+
+    private HttpServer server;
+
+    @After
+    public void tearDown() {
+        client.close();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private int serve(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    private static void send(HttpExchange exchange, byte[] data, long length) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", SlimPingData.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(data);
+        }
+    }
+
+    @Test
+    public void testManyInFlight() throws Exception {
+        PodFarm farm = new PodFarm(200).setLatency(200, 300);
+        farm.start();
+        try {
+            long start = System.nanoTime();
+            List<Future<PingData>> pending = new ArrayList<>();
+            for (PodFarm.Responder responder : farm.getResponders()) {
+                pending.add(client.getPingDataAsync(responder.getHost(), responder.getPort(), System.currentTimeMillis() + 10000));
+            }
+            for (Future<PingData> future : pending) {
+                Assert.assertNotNull(future.get());
+            }
+            long took = (System.nanoTime() - start) / 1000000;
+            // one after the other would take 200 x 200 ms
+            Assert.assertTrue("Took " + took, took < 5000);
+            Assert.assertEquals(200, farm.getRequests());
+        } finally {
+            farm.stop();
+        }
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final byte[] data = SlimPingData.toBytes(Utils.createPingData("10.1.0.1", 7600));
+        int port = serve(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (requests.incrementAndGet() == 1) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(503, -1);
+                } else {
+                    send(exchange, data, data.length);
+                }
+                exchange.close();
+            }
+        });
+        long start = System.nanoTime();
+        Assert.assertNotNull(client.getPingDataAsync("127.0.0.1", port, Long.MAX_VALUE).get());
+        long took = (System.nanoTime() - start) / 1000000;
+        Assert.assertEquals(2, requests.get());
+        Assert.assertTrue("Took " + took, took >= 450 && took < 3000);
+        Assert.assertEquals(1, client.getPingOverloaded());
+        Assert.assertEquals(1, client.getPingRetries());
+    }
+
+    @Test
+    public void testNotModifiedAndChunked() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final byte[] data = SlimPingData.toBytes(Utils.createPingData("10.1.0.1", 7600));
+        int port = serve(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                if ("\"1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().set("ETag", "\"1\"");
+                    send(exchange, data, 0); // chunked
+                }
+                exchange.close();
+            }
+        });
+        PingData first = client.getPingDataAsync("127.0.0.1", port, Long.MAX_VALUE).get();
+        Assert.assertEquals(Utils.createPingData("10.1.0.1", 7600).getPhysicalAddrs(), first.getPhysicalAddrs());
+        Assert.assertSame(first, client.getPingDataAsync("127.0.0.1", port, Long.MAX_VALUE).get());
+        Assert.assertEquals(2, requests.get());
+        Assert.assertEquals(1, client.getNotModified());
+    }
+
+    @Test
+    public void testLeaving() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        int port = serve(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(410, -1);
+                exchange.close();
+            }
+        });
+        try {
+            client.getPingDataAsync("127.0.0.1", port, Long.MAX_VALUE).get();
+            Assert.fail("Should not be here.");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PeerLeavingException);
+        }
+        Assert.assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        // accepts, but never answers
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            client.setTimeouts(5000, 5000);
+            long start = System.nanoTime();
+            Future<PingData> future = client.getPingDataAsync("127.0.0.1", socket.getLocalPort(), System.currentTimeMillis() + 500);
+            Socket accepted = socket.accept();
+            try {
+                future.get();
+                Assert.fail("Should not be here.");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            } finally {
+                accepted.close();
+            }
+            long took = (System.nanoTime() - start) / 1000000;
+            Assert.assertTrue("Took " + took, took >= 450 && took < 2000);
+        }
+    }
+
+    @Test
+    public void testSplitHead() throws Exception {
+        byte[] data = SlimPingData.toBytes(Utils.createPingData("10.1.0.1", 7600));
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: " + SlimPingData.CONTENT_TYPE + "\r\nContent-Length: " + data.length + "\r\n\r\n";
+        byte[] bytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Future<PingData> future = client.getPingDataAsync("127.0.0.1", socket.getLocalPort(), System.currentTimeMillis() + 5000);
+            try (Socket accepted = socket.accept()) {
+                accepted.setTcpNoDelay(true);
+                accepted.getInputStream().read(new byte[1024]);
+                OutputStream out = accepted.getOutputStream();
+                // the blank line ending the head arrives in pieces
+                int[] splits = {bytes.length - 3, bytes.length - 1, bytes.length};
+                int offset = 0;
+                for (int split : splits) {
+                    out.write(bytes, offset, split - offset);
+                    out.flush();
+                    offset = split;
+                    Thread.sleep(50);
+                }
+                out.write(data);
+                out.flush();
+                Assert.assertNotNull(future.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.OldestPodOrdering;
+import org.jboss.kubeping.rest.Pod;
+import org.jboss.kubeping.rest.SameNodeOrdering;
+import org.jboss.kubeping.rest.SameZoneOrdering;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PeerOrderingTest {
+    private static final String PODS = "{\"items\": [" +
+        pod("pod-a", "node-3", "2015-01-28T10:00:03Z") + "," +
+        pod("pod-b", "node-2", "2015-01-28T10:00:02Z") + "," +
+        pod("pod-c", "node-1", "2015-01-28T10:00:01Z") + "," +
+        pod("pod-d", "node-4", null) +
+        "]}";
+
+    private static final String NODES = "{\"items\": [" +
+        node("node-1", "zone-a") + "," +
+        node("node-2", "zone-b") + "," +
+        node("node-3", "zone-a") + "," +
+        node("node-4", "zone-b") +
+        "]}";
+
+    private static String pod(String name, String node, String created) {
+        return "{\"metadata\": {\"name\": \"" + name + "\"" + (created != null ? ", \"creationTimestamp\": \"" + created + "\"" : "") + "}," +
+            " \"desiredState\": {\"manifest\": {\"containers\": []}}," +
+            " \"currentState\": {\"host\": \"" + node + "\", \"podIP\": \"10.0.0.1\"}}";
+    }
+
+    private static String node(String name, String zone) {
+        return "{\"metadata\": {\"name\": \"" + name + "\", \"labels\": {\"zone\": \"" + zone + "\"}}}";
+    }
+
+    private final Client client = new Client() {
+        @Override
+        protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+            return ModelNode.fromJSONString("pods".equals(op) ? PODS : NODES);
+        }
+    };
+
+    private static String names(List<Pod> pods) {
+        StringBuilder builder = new StringBuilder();
+        for (Pod pod : pods) {
+            builder.append(pod.getName().substring(4));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testSameNode() throws Exception {
+        List<Pod> pods = client.getPods();
+        new SameNodeOrdering().order(pods, "node-2", Long.MAX_VALUE);
+        Assert.assertEquals("bacd", names(pods));
+    }
+
+    @Test
+    public void testSameZone() throws Exception {
+        List<Pod> pods = client.getPods();
+        new SameZoneOrdering(client, "zone", 60000).order(pods, "node-1", Long.MAX_VALUE);
+        Assert.assertEquals("cabd", names(pods));
+    }
+
+    @Test
+    public void testOldest() throws Exception {
+        List<Pod> pods = client.getPods();
+        new OldestPodOrdering().order(pods, null, Long.MAX_VALUE);
+        Assert.assertEquals("cbad", names(pods));
+    }
+
+    @Test
+    public void testSameZoneFailure() throws Exception {
+        final AtomicInteger lists = new AtomicInteger();
+        Client failing = new Client() {
+            @Override
+            protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+                if ("pods".equals(op)) {
+                    return ModelNode.fromJSONString(PODS);
+                }
+                // a single attempt, bounded by the round
+                Assert.assertEquals(1, tries);
+                Assert.assertEquals(12345L, deadline);
+                lists.incrementAndGet();
+                throw new IOException("Forbidden");
+            }
+        };
+        SameZoneOrdering ordering = new SameZoneOrdering(failing, "zone", 60000);
+        for (int i = 0; i < 3; i++) {
+            List<Pod> pods = failing.getPods();
+            ordering.order(pods, "node-1", 12345L);
+            Assert.assertEquals("abcd", names(pods));
+        }
+        // the failure is cached for the period
+        Assert.assertEquals(1, lists.get());
+    }
+}
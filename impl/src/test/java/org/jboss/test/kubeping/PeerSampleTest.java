@@ -0,0 +1,144 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jboss.kubeping.PeerSample;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Simulated joins, measuring how often the sample misses the coordinator, and what a join costs.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PeerSampleTest {
+    private static final int SAMPLE = 8;
+    private static final int JOINS = 2000;
+
+    private static List<String> peers(int size) {
+        List<String> keys = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            keys.add(String.format("10.%s.%s.%s:8888", i / 65536, (i / 256) % 256, i % 256));
+        }
+        return keys;
+    }
+
+    /**
+     * @return peers asked until the wave holding the coordinator was done
+     */
+    private static int asked(List<String> ordered, String coordinator) {
+        int index = ordered.indexOf(coordinator);
+        Assert.assertTrue("Coordinator never asked", index >= 0);
+        int wave = PeerSample.firstWave(SAMPLE, ordered.size());
+        while (index >= wave) {
+            wave = PeerSample.widen(wave, ordered.size());
+        }
+        return wave;
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        List<String> keys = peers(100);
+        List<String> ordered = PeerSample.order(keys, keys.get(42), "joiner-1");
+        Assert.assertEquals(100, ordered.size());
+        Assert.assertEquals(new HashSet<>(keys), new HashSet<>(ordered));
+        Assert.assertEquals(keys.get(42), ordered.get(0));
+        // the same joiner gets the same sample, another one a different one
+        Assert.assertEquals(ordered, PeerSample.order(keys, keys.get(42), "joiner-1"));
+        Assert.assertFalse(ordered.subList(1, SAMPLE + 1).equals(PeerSample.order(keys, keys.get(42), "joiner-2").subList(1, SAMPLE + 1)));
+        // a gone coordinator is just left out
+        Assert.assertEquals(100, PeerSample.order(keys, "10.9.9.9:8888", "joiner-1").size());
+    }
+
+    @Test
+    public void testWaves() throws Exception {
+        Assert.assertEquals(9, PeerSample.firstWave(SAMPLE, 100));
+        Assert.assertEquals(5, PeerSample.firstWave(SAMPLE, 5));
+        Assert.assertEquals(18, PeerSample.widen(9, 100));
+        Assert.assertEquals(100, PeerSample.widen(72, 100));
+        Assert.assertEquals(2, PeerSample.widen(1, 100));
+    }
+
+    @Test
+    public void testConstantCost() throws Exception {
+        // the likely coordinator guessed right, a join costs the same whatever the cluster size
+        for (int size : new int[]{50, 500, 5000}) {
+            List<String> keys = peers(size);
+            Random random = new Random(size);
+            for (int join = 0; join < 100; join++) {
+                String coordinator = keys.get(random.nextInt(size));
+                Assert.assertEquals(SAMPLE + 1, asked(PeerSample.order(keys, coordinator, "joiner-" + join), coordinator));
+            }
+        }
+    }
+
+    @Test
+    public void testMissRate() throws Exception {
+        // the guess is wrong now and then, e.g. the oldest pod just restarted
+        int size = 500;
+        double wrongGuess = 0.1;
+        List<String> keys = peers(size);
+        Random random = new Random(12345);
+        int misses = 0;
+        long asked = 0;
+        for (int join = 0; join < JOINS; join++) {
+            String coordinator = keys.get(random.nextInt(size));
+            String likely = (random.nextDouble() < wrongGuess) ? keys.get(random.nextInt(size)) : coordinator;
+            int n = asked(PeerSample.order(keys, likely, "joiner-" + join), coordinator);
+            if (n > SAMPLE + 1) {
+                misses++;
+            }
+            asked += n;
+        }
+        double missRate = (double) misses / JOINS;
+        // a wrong guess is a miss unless the coordinator is in the sample
+        double expected = wrongGuess * (1 - (double) SAMPLE / size);
+        System.out.println(String.format("Sample %s of %s: miss rate %.4f (expected %.4f), %.1f peers asked per join",
+            SAMPLE, size, missRate, expected, (double) asked / JOINS));
+        Assert.assertEquals(expected, missRate, 0.03);
+        // even with misses, far fewer than all peers
+        Assert.assertTrue((double) asked / JOINS < size / 4);
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+        // many joiners, without a likely coordinator, should not all pick the same peers
+        int size = 200;
+        List<String> keys = peers(size);
+        Map<String, Integer> load = new HashMap<>();
+        for (int join = 0; join < JOINS; join++) {
+            for (String key : PeerSample.order(keys, null, "joiner-" + join).subList(0, SAMPLE)) {
+                Integer count = load.get(key);
+                load.put(key, (count == null) ? 1 : count + 1);
+            }
+        }
+        double mean = (double) JOINS * SAMPLE / size;
+        int max = 0;
+        for (int count : load.values()) {
+            max = Math.max(max, count);
+        }
+        Assert.assertEquals(size, load.size());
+        Assert.assertTrue("Max load " + max + ", mean " + mean, max < 2 * mean);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.PeerLeavingException;
+import org.jboss.kubeping.rest.PeerWatcher;
+import org.jgroups.protocols.PingData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PeerWatcherTest {
+    @Test
+    public void testLeavingPeer() throws Exception {
+        final AtomicInteger watches = new AtomicInteger();
+        Client client = new Client() {
+            @Override
+            public PingData watchPingData(String host, int port, long timeout) throws Exception {
+                watches.incrementAndGet();
+                throw new PeerLeavingException(String.format("http://%s:%s/watch", host, port));
+            }
+        };
+        PeerWatcher watcher = new PeerWatcher(client, 1000, new PeerWatcher.Listener() {
+            public void changed(String peer, PingData data) {
+            }
+        });
+        try {
+            watcher.watch(Collections.singleton("10.0.0.1:8888"));
+            for (int i = 0; i < 50 && watcher.getPeers().isEmpty() == false; i++) {
+                Thread.sleep(20);
+            }
+            // the ended watch is gone, so the peer can be watched again
+            Assert.assertTrue(watcher.getPeers().isEmpty());
+            Assert.assertEquals(1, watches.get());
+
+            watcher.watch(Collections.singleton("10.0.0.1:8888"));
+            for (int i = 0; i < 50 && watches.get() < 2; i++) {
+                Thread.sleep(20);
+            }
+            Assert.assertEquals(2, watches.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.PodAgent;
+import org.jboss.test.kubeping.support.FakeMaster;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class PodAgentTest {
+    private FakeMaster master;
+    private PodAgent agent;
+
+    @Before
+    public void setUp() throws Exception {
+        master = new FakeMaster();
+        master.addPod("pod-1", "10.0.0.1", 8888);
+        master.addPod("pod-2", "10.0.0.2", 8888);
+        master.addPod("pod-3", "10.0.0.3", 8888);
+        master.start();
+        agent = new PodAgent(createClient(), "127.0.0.1", 0, 60000, new HashSet<>(Arrays.asList("default", "other")));
+        agent.start();
+    }
+
+    @After
+    public void tearDown() {
+        agent.stop();
+        master.stop();
+    }
+
+    private Client createClient() throws Exception {
+        return new Client(master.getHost(), master.getPort(), "v1beta3", null);
+    }
+
+    @Test
+    public void testSharedList() throws Exception {
+        // all the JVMs on a node
+        for (int i = 0; i < 5; i++) {
+            Client client = createClient();
+            client.setAgentURL("http://127.0.0.1:" + agent.getPort());
+            Assert.assertEquals(3, client.getPods("default", null).size());
+            // labels are matched by the client
+            Assert.assertEquals(0, client.getPods("default", "name=wildfly").size());
+            Assert.assertEquals(0, client.getAgentFallbacks());
+        }
+        Assert.assertEquals(1, master.getLists());
+        Assert.assertEquals(1, agent.getLists());
+        Assert.assertEquals(10, agent.getRequests());
+
+        // another namespace is a list of its own
+        Client client = createClient();
+        client.setAgentURL("http://127.0.0.1:" + agent.getPort());
+        client.getPods("other", null);
+        Assert.assertEquals(2, master.getLists());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        Client client = createClient();
+        client.setAgentURL("http://127.0.0.1:" + agent.getPort());
+        client.setTimeouts(1000, 1000);
+        agent.stop();
+        Assert.assertEquals(3, client.getPods("default", null).size());
+        Assert.assertEquals(1, client.getAgentFallbacks());
+        Assert.assertEquals(1, master.getLists());
+    }
+
+    @Test
+    public void testForbiddenNamespace() throws Exception {
+        Client client = createClient();
+        client.setAgentURL("http://127.0.0.1:" + agent.getPort());
+        // not the agent's to list, the client's own credentials decide
+        Assert.assertEquals(3, client.getPods("kube-system", null).size());
+        Assert.assertEquals(1, client.getAgentFallbacks());
+        Assert.assertEquals(0, agent.getLists());
+        Assert.assertEquals(0, agent.getRequests());
+        Assert.assertEquals(1, master.getLists());
+    }
+
+    @Test
+    public void testToken() throws Exception {
+        agent.stop();
+        agent = new PodAgent(createClient(), "127.0.0.1", 0, 60000, new HashSet<>(Arrays.asList("default")));
+        agent.setToken("secret");
+        agent.start();
+
+        Client client = createClient();
+        client.setAgentURL("http://127.0.0.1:" + agent.getPort());
+        Assert.assertEquals(3, client.getPods("default", null).size());
+        Assert.assertEquals(1, client.getAgentFallbacks());
+        Assert.assertEquals(0, agent.getRequests());
+
+        client.setAgentToken("wrong");
+        client.getPods("default", null);
+        Assert.assertEquals(2, client.getAgentFallbacks());
+        Assert.assertEquals(0, agent.getRequests());
+
+        client.setAgentToken("secret");
+        Assert.assertEquals(3, client.getPods("default", null).size());
+        Assert.assertEquals(2, client.getAgentFallbacks());
+        Assert.assertEquals(1, agent.getRequests());
+    }
+
+    @Test
+    public void testMalformedResponse() throws Exception {
+        HttpServer broken = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        broken.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "{\"items\": [".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        });
+        broken.start();
+        try {
+            Client client = createClient();
+            client.setAgentURL("http://127.0.0.1:" + broken.getAddress().getPort());
+            Assert.assertEquals(3, client.getPods("default", null).size());
+            Assert.assertEquals(1, client.getAgentFallbacks());
+            Assert.assertEquals(1, master.getLists());
+        } finally {
+            broken.stop(0);
+        }
+    }
+}
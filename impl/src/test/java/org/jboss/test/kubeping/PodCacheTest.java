@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.LabelSelector;
+import org.jboss.kubeping.rest.PodCache;
+import org.jboss.test.kubeping.support.TestClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PodCacheTest {
+
+    @Test
+    public void testSharedList() throws Exception {
+        CountingClient client = new CountingClient();
+        PodCache first = PodCache.acquire(client, "default", 60000);
+        PodCache second = PodCache.acquire(new CountingClient(), "default", 60000);
+        try {
+            Assert.assertSame(first, second);
+            Assert.assertEquals(2, first.getPods("name=testRun").size());
+            Assert.assertEquals(0, second.getPods("name=testRun,replicationController!=testRun").size());
+            Assert.assertEquals(2, second.getPods(null).size());
+            Assert.assertEquals(1, client.calls.get());
+        } finally {
+            first.release();
+            second.release();
+        }
+
+        PodCache third = PodCache.acquire(client, "default", 60000);
+        try {
+            Assert.assertNotSame(first, third);
+            third.getPods("name=testRun");
+            Assert.assertEquals(2, client.calls.get());
+        } finally {
+            third.release();
+        }
+    }
+
+    @Test
+    public void testSeparateConfigs() throws Exception {
+        CountingClient client = new CountingClient();
+        CountingClient protobuf = new CountingClient();
+        protobuf.setProtobuf(true);
+        CountingClient agent = new CountingClient();
+        agent.setAgentURL("http://127.0.0.1:8889");
+        PodCache first = PodCache.acquire(client, "default", 60000);
+        PodCache second = PodCache.acquire(protobuf, "default", 60000);
+        PodCache third = PodCache.acquire(agent, "default", 60000);
+        try {
+            // each lists pods the way it was configured to
+            Assert.assertNotSame(first, second);
+            Assert.assertNotSame(first, third);
+            Assert.assertNotSame(second, third);
+            Assert.assertSame(first, PodCache.acquire(new CountingClient(), "default", 60000));
+            first.release();
+        } finally {
+            first.release();
+            second.release();
+            third.release();
+        }
+    }
+
+    @Test
+    public void testDeadlineWhileListing() throws Exception {
+        final CountingClient client = new CountingClient();
+        client.delay = 2000;
+        final PodCache cache = PodCache.acquire(client, "slow", 60000);
+        try {
+            final CountDownLatch listing = new CountDownLatch(1);
+            Thread first = new Thread() {
+                public void run() {
+                    listing.countDown();
+                    try {
+                        cache.getPods(null);
+                    } catch (IOException ignored) {
+                    }
+                }
+            };
+            first.setDaemon(true);
+            first.start();
+            listing.await();
+            Thread.sleep(200);
+
+            // the list call in flight is shared, but not waited for beyond the deadline
+            long start = System.currentTimeMillis();
+            try {
+                cache.getPods(null, start + 200);
+                Assert.fail("Should not be here.");
+            } catch (SocketTimeoutException expected) {
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            first.join();
+            Assert.assertEquals(1, client.calls.get());
+        } finally {
+            cache.release();
+        }
+    }
+
+    @Test
+    public void testStaleWhileListing() throws Exception {
+        CountingClient client = new CountingClient();
+        PodCache cache = PodCache.acquire(client, "stale", 100);
+        try {
+            Assert.assertEquals(2, cache.getPods(null).size());
+            // the background refresh hangs on the master
+            client.delay = 2000;
+            Thread.sleep(500);
+
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(2, cache.getPods(null, start + 200).size());
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            Assert.assertEquals(2, client.calls.get());
+        } finally {
+            cache.release();
+        }
+    }
+
+    @Test
+    public void testLabelSelector() throws Exception {
+        Map<String, String> labels = new HashMap<>();
+        labels.put("name", "wildfly");
+        labels.put("tier", "web");
+
+        Assert.assertTrue(LabelSelector.parse(null).matches(labels));
+        Assert.assertTrue(LabelSelector.parse("name=wildfly").matches(labels));
+        Assert.assertTrue(LabelSelector.parse("name==wildfly, tier!=db").matches(labels));
+        Assert.assertTrue(LabelSelector.parse("tier,!version").matches(labels));
+        Assert.assertFalse(LabelSelector.parse("name=wildfly,tier=db").matches(labels));
+        Assert.assertFalse(LabelSelector.parse("version").matches(labels));
+        Assert.assertFalse(LabelSelector.parse("!tier").matches(labels));
+    }
+
+    private static class CountingClient extends TestClient {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile long delay;
+
+        @Override
+        public String getRootURL() {
+            return "http://localhost:1234/api/v1beta1";
+        }
+
+        @Override
+        protected ModelNode getNode(String op, String namespace, String labels, int tries, long deadline) throws IOException {
+            calls.incrementAndGet();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getNode(op, namespace, labels, tries, deadline);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.JDKServerFactory;
+import org.jboss.test.kubeping.support.PodFarm;
+import org.jboss.test.kubeping.support.TestKubePing;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.PingData;
+import org.jgroups.protocols.TCP;
+import org.jgroups.util.Util;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Discovery rounds, via readAll, against a synthetic pod farm.
+ * The farm size can be raised with -Dkubeping.farm.size; exact member counts within tight budgets
+ * depend on the machine, so they are only asserted with -Dkubeping.farm.strict=true.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PodFarmStressTest {
+    private static final int SIZE = Integer.getInteger("kubeping.farm.size", 200);
+    private static final boolean STRICT = Boolean.getBoolean("kubeping.farm.strict");
+
+    private PodFarm farm;
+    private TestKubePing ping;
+    private JChannel channel;
+    private int sample;
+
+    @After
+    public void tearDown() {
+        if (ping != null) {
+            ping.stop();
+        }
+        Util.close(channel);
+        if (farm != null) {
+            farm.stop();
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testHealthyFarm() throws Exception {
+        farm = new PodFarm(SIZE).setLatency(0, 2);
+        farm.start();
+
+        // peers asked one by one
+        List<PingData> members = discover(0, STRICT ? 5000 : 30000);
+        Assert.assertEquals(SIZE, members.size());
+        Assert.assertTrue(ping.getMembership().isComplete());
+    }
+
+    @Test
+    public void testSampledFarm() throws Exception {
+        farm = new PodFarm(SIZE).setLatency(0, 2);
+        farm.start();
+
+        // no responder is a coordinator, so the sample widens until every pod is asked
+        sample = 8;
+        List<PingData> members = discover(16, STRICT ? 5000 : 30000);
+        Assert.assertEquals(SIZE, members.size());
+        Assert.assertTrue(ping.getMembership().isComplete());
+    }
+
+    @Test
+    public void testFailureMix() throws Exception {
+        farm = new PodFarm(SIZE)
+            .setLatency(1, 10)
+            .setTail(0.01, 500)
+            .setFailureRate(0.05)
+            .setSlowStart(0.05, 1000)
+            .setDisappearanceRate(0.01);
+        farm.start();
+
+        List<PingData> members = discover(16, 3000);
+        int gone = 0;
+        for (PodFarm.Responder responder : farm.getResponders()) {
+            if (responder.isGone()) {
+                gone++;
+            }
+        }
+        // the gone ones never answer
+        Assert.assertTrue(members.size() <= SIZE - gone);
+        Assert.assertTrue(farm.getFailures() > 0);
+        if (STRICT) {
+            // failures and slow starts are retried within the budget, only the gone ones are missing
+            Assert.assertEquals(SIZE - gone, members.size());
+        } else {
+            Assert.assertFalse(members.isEmpty());
+        }
+        if (gone > 0) {
+            // they are cut off at the end of the budget, so the round is not complete
+            Assert.assertEquals(1, ping.getCutOffRounds());
+            Assert.assertNull(ping.getMembership());
+        }
+    }
+
+    private List<PingData> discover(int parallelPeerFetches, long budget) throws Exception {
+        Client client = new Client(farm.getMaster().getHost(), farm.getMaster().getPort(), "v1beta3", null);
+        ping = new TestKubePing(client);
+        ping.setNamespace("default");
+        ping.setFactory(new JDKServerFactory());
+        ping.setParallelPeerFetches(parallelPeerFetches);
+        ping.setDiscoveryTimeout(budget);
+        ping.setDiscoverySample(sample);
+        // never connected, the stack is only there for the ping server
+        channel = new JChannel(new TCP().setValue("bind_addr", InetAddress.getLoopbackAddress()), ping);
+        ping.start();
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        List<PingData> members = ping.readAll("test");
+        long took = (System.nanoTime() - start) / 1000000;
+        long memory = usedMemory() - before;
+
+        System.out.println(String.format("%s pods (aliases: %s), %s parallel fetches: %s members in %s ms, %.0f peers/s;" +
+                " %s requests, %s failures, %s dropped, %s retries, %s cut-off rounds; %s KB retained",
+            SIZE, farm.isAliases(), parallelPeerFetches, members.size(), took, members.size() * 1000.0 / Math.max(1, took),
+            farm.getRequests(), farm.getFailures(), farm.getDropped(), client.getPingRetries(), ping.getCutOffRounds(), memory / 1024));
+        return members;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.Container;
+import org.jboss.kubeping.rest.Pod;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PodFootprintTest {
+    private static final int PODS = 10000;
+
+    private static String pods(int size) {
+        StringBuilder builder = new StringBuilder("{\"items\": [");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append("{\"id\": \"wildfly-").append(i).append("\",");
+            builder.append(" \"labels\": {\"name\": \"wildfly\", \"replicationController\": \"wildfly-rc\"},");
+            builder.append(" \"desiredState\": {\"manifest\": {\"containers\": [{\"name\": \"wildfly\", \"ports\": [");
+            builder.append("{\"name\": \"http\", \"containerPort\": 8080}, {\"name\": \"ping\", \"containerPort\": 8888}]}]}},");
+            builder.append(" \"currentState\": {\"host\": \"node-").append(i % 100).append("\",");
+            builder.append(" \"podIP\": \"10.1.").append(i / 256).append(".").append(i % 256).append("\", \"status\": \"Running\"}}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testFootprint() throws Exception {
+        final String json = pods(PODS);
+        Client client = new Client() {
+            @Override
+            protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+                return ModelNode.fromJSONString(json);
+            }
+        };
+
+        long before = usedMemory();
+        List<Pod> pods = client.getPods();
+        long after = usedMemory();
+        Assert.assertEquals(PODS, pods.size());
+        long perPod = (after - before) / PODS;
+        System.out.println(String.format("%s pods take %s KB, %s bytes per pod", PODS, (after - before) / 1024, perPod));
+
+        Pod first = pods.get(0);
+        Pod other = pods.get(100);
+        Assert.assertSame(first.getHost(), other.getHost());
+        Assert.assertSame(first.getLabels(), other.getLabels());
+        Assert.assertEquals("10.1.0.0", first.getPodIP());
+        Assert.assertEquals("10.1.39.15", pods.get(PODS - 1).getPodIP());
+
+        Container container = first.getContainers().get(0);
+        Assert.assertEquals(8888, container.getPort("ping").getContainerPort().intValue());
+        Assert.assertNull(container.findPort("jgroups"));
+        Assert.assertTrue(client.accept(container, "http"));
+        Assert.assertFalse(client.accept(container, "jgroups"));
+
+        // generous bound, the measurement is only indicative
+        Assert.assertTrue("Per pod: " + perPod, perPod < 2048);
+    }
+}
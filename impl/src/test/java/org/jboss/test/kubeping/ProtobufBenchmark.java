@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.Pod;
+import org.jboss.kubeping.rest.ProtobufPods;
+
+/**
+ * Decoding cost of a v1 pod list, JSON via DMR versus protobuf.
+ *
+ * Not a test, run it from the IDE or with exec:java, tuning it with system properties:
+ * kubeping.bench.pods (10000) and kubeping.bench.rounds (5).
+ * For each format it reports the body size, and the least cpu time and bytes allocated over the rounds,
+ * the latter read from the HotSpot thread MXBean.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ProtobufBenchmark {
+    private static final int PODS = Integer.getInteger("kubeping.bench.pods", 10000);
+    private static final int ROUNDS = Integer.getInteger("kubeping.bench.rounds", 5);
+
+    public static void main(String[] args) throws Exception {
+        final String json = ProtobufPodsTest.json(PODS);
+        final byte[] protobuf = ProtobufPodsTest.protobuf(PODS);
+        Client client = new Client() {
+            @Override
+            protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) {
+                return ModelNode.fromJSONString(json);
+            }
+        };
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long[] jsonCost = {Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] protobufCost = {Long.MAX_VALUE, Long.MAX_VALUE};
+        List<Pod> fromJson = null;
+        List<Pod> fromProtobuf = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long cpu = threads.getCurrentThreadCpuTime();
+            long allocated = allocated(threads);
+            fromJson = client.getPods();
+            jsonCost[0] = Math.min(jsonCost[0], threads.getCurrentThreadCpuTime() - cpu);
+            jsonCost[1] = Math.min(jsonCost[1], allocated(threads) - allocated);
+
+            cpu = threads.getCurrentThreadCpuTime();
+            allocated = allocated(threads);
+            fromProtobuf = ProtobufPods.readPodList(protobuf);
+            protobufCost[0] = Math.min(protobufCost[0], threads.getCurrentThreadCpuTime() - cpu);
+            protobufCost[1] = Math.min(protobufCost[1], allocated(threads) - allocated);
+        }
+
+        // both should read the same pods, else the comparison is moot
+        for (int i : new int[]{0, PODS / 2, PODS - 1}) {
+            ProtobufPodsTest.assertPod(fromJson.get(i), i);
+            ProtobufPodsTest.assertPod(fromProtobuf.get(i), i);
+        }
+        System.out.println(String.format("%s pods, best of %s rounds", PODS, ROUNDS));
+        System.out.println(String.format("%-10s %10s %10s %14s", "format", "KB", "cpu ms", "KB allocated"));
+        System.out.println(String.format("%-10s %10d %10d %14d", "json", json.length() / 1024, jsonCost[0] / 1000000, jsonCost[1] / 1024));
+        System.out.println(String.format("%-10s %10d %10d %14d", "protobuf", protobuf.length / 1024, protobufCost[0] / 1000000, protobufCost[1] / 1024));
+    }
+
+    private static long allocated(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
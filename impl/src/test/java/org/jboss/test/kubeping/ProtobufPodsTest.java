@@ -0,0 +1,174 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.Container;
+import org.jboss.kubeping.rest.Pod;
+import org.jboss.kubeping.rest.ProtobufPods;
+import org.jboss.test.kubeping.support.ProtobufMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class ProtobufPodsTest {
+    static ProtobufMessage pod(int i) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("name", "wildfly");
+        labels.put("replicationController", "wildfly-rc");
+        ProtobufMessage metadata = new ProtobufMessage()
+            .string(1, "wildfly-" + i)
+            .string(3, "default")
+            .string(5, "uid-" + i) // not needed, skipped
+            .varint(7, 3)
+            .message(8, new ProtobufMessage().varint(1, 1422439201L))
+            .map(11, labels);
+        ProtobufMessage container = new ProtobufMessage()
+            .string(1, "wildfly")
+            .string(2, "jboss/wildfly")
+            .message(6, new ProtobufMessage().string(1, "http").varint(3, 8080).string(4, "TCP"))
+            .message(6, new ProtobufMessage().string(1, "ping").varint(3, 8888).string(4, "TCP"));
+        ProtobufMessage spec = new ProtobufMessage()
+            .message(2, container)
+            .string(3, "Always")
+            .string(10, "node-" + (i % 100));
+        ProtobufMessage status = new ProtobufMessage()
+            .string(1, "Running")
+            .message(2, new ProtobufMessage().string(1, "Ready").string(2, "True"))
+            .string(5, "192.168.0." + (i % 100))
+            .string(6, "10.1." + (i / 256) + "." + (i % 256))
+            .fixed64(99, 42L); // unknown field
+        return new ProtobufMessage().message(1, metadata).message(2, spec).message(3, status);
+    }
+
+    static byte[] protobuf(int size) {
+        ProtobufMessage list = new ProtobufMessage().message(1, new ProtobufMessage().string(2, "12345"));
+        for (int i = 0; i < size; i++) {
+            list.message(2, pod(i));
+        }
+        return ProtobufMessage.envelope("PodList", list);
+    }
+
+    static String json(int size) {
+        StringBuilder builder = new StringBuilder("{\"items\": [");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append("{\"metadata\": {\"name\": \"wildfly-").append(i).append("\", \"namespace\": \"default\", \"uid\": \"uid-").append(i).append("\",");
+            builder.append(" \"creationTimestamp\": \"2015-01-28T10:00:01Z\",");
+            builder.append(" \"labels\": {\"name\": \"wildfly\", \"replicationController\": \"wildfly-rc\"}},");
+            builder.append(" \"spec\": {\"containers\": [{\"name\": \"wildfly\", \"image\": \"jboss/wildfly\", \"ports\": [");
+            builder.append("{\"name\": \"http\", \"containerPort\": 8080, \"protocol\": \"TCP\"}, {\"name\": \"ping\", \"containerPort\": 8888, \"protocol\": \"TCP\"}]}],");
+            builder.append(" \"restartPolicy\": \"Always\", \"nodeName\": \"node-").append(i % 100).append("\"},");
+            builder.append(" \"status\": {\"phase\": \"Running\", \"conditions\": [{\"type\": \"Ready\", \"status\": \"True\"}],");
+            builder.append(" \"hostIP\": \"192.168.0.").append(i % 100).append("\", \"podIP\": \"10.1.").append(i / 256).append(".").append(i % 256).append("\"}}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    static void assertPod(Pod pod, int i) {
+        Assert.assertEquals("wildfly-" + i, pod.getName());
+        Assert.assertEquals("node-" + (i % 100), pod.getHost());
+        Assert.assertEquals("10.1." + (i / 256) + "." + (i % 256), pod.getPodIP());
+        Assert.assertEquals("wildfly", pod.getLabels().get("name"));
+        Assert.assertEquals("Running", pod.getPhase());
+        Assert.assertTrue(pod.isReady());
+        Assert.assertEquals(1422439201000L, pod.getCreationTimestamp());
+        Container container = pod.getContainers().get(0);
+        Assert.assertEquals(pod.getPodIP(), container.getPodIP());
+        Assert.assertEquals(8888, container.getPort("ping").getContainerPort().intValue());
+        Assert.assertEquals(8080, container.getPort("http").getContainerPort().intValue());
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        List<Pod> pods = ProtobufPods.readPodList(protobuf(3));
+        Assert.assertEquals(3, pods.size());
+        for (int i = 0; i < pods.size(); i++) {
+            assertPod(pods.get(i), i);
+        }
+        Assert.assertFalse(pods.get(0).isTerminating());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        byte[] bytes = protobuf(1);
+        ProtobufPods.readPodList(Arrays.copyOf(bytes, bytes.length - 10));
+    }
+
+    @Test
+    public void testNegotiation() throws Exception {
+        final byte[] protobuf = protobuf(2);
+        final byte[] json = json(2).getBytes(StandardCharsets.UTF_8);
+        final boolean[] supportsProtobuf = {true};
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // a v1 master scopes by path and selects by labelSelector, ignoring anything else
+                if ("/api/v1/namespaces/default/pods".equals(exchange.getRequestURI().getPath()) == false
+                    || "labelSelector=name%3Dwildfly".equals(exchange.getRequestURI().getRawQuery()) == false) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                String accept = exchange.getRequestHeaders().getFirst("Accept");
+                boolean pb = supportsProtobuf[0] && accept != null && accept.contains(ProtobufPods.CONTENT_TYPE);
+                byte[] body = pb ? protobuf : json;
+                exchange.getResponseHeaders().set("Content-Type", pb ? ProtobufPods.CONTENT_TYPE : "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            Client client = new Client("127.0.0.1", String.valueOf(server.getAddress().getPort()), "v1", null);
+            client.setProtobuf(true);
+            List<Pod> pods = client.getPods("default", "name=wildfly");
+            Assert.assertEquals(2, pods.size());
+            assertPod(pods.get(1), 1);
+
+            // master without protobuf support
+            supportsProtobuf[0] = false;
+            pods = client.getPods("default", "name=wildfly");
+            Assert.assertEquals(2, pods.size());
+            assertPod(pods.get(1), 1);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
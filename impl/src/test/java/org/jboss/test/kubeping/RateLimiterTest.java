@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.RateLimiter;
+import org.jboss.kubeping.rest.SlimPingData;
+import org.jboss.kubeping.rest.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class RateLimiterTest {
+
+    @Test
+    public void testBurstAndRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+        }
+        Assert.assertEquals(0, limiter.getThrottled());
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+        }
+        long took = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Took " + took, took >= 400);
+        Assert.assertEquals(10, limiter.getRequests());
+        Assert.assertTrue(limiter.getThrottled() > 0);
+        Assert.assertTrue(limiter.getRate() > 0);
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        limiter.pause(300);
+        long start = System.nanoTime();
+        limiter.acquire();
+        long took = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Took " + took, took >= 250);
+    }
+
+    @Test
+    public void testPauseBeyondDeadline() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        limiter.pause(60000);
+        long start = System.nanoTime();
+        Assert.assertFalse(limiter.acquire(System.currentTimeMillis() + 200));
+        long took = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Took " + took, took < 100);
+        Assert.assertEquals(0, limiter.getRequests());
+
+        // a master call gives up at once, rather than sleeping through the pause
+        Client client = new Client("127.0.0.1", "1234", "v1beta1", null);
+        client.setRateLimiter(limiter);
+        start = System.nanoTime();
+        try {
+            client.getPods("default", null, System.currentTimeMillis() + 500);
+            Assert.fail("Should not be here.");
+        } catch (Exception expected) {
+        }
+        took = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Took " + took, took < 500);
+        Assert.assertEquals(0, limiter.getRequests());
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (requests.incrementAndGet() == 1) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(429, -1);
+                } else {
+                    byte[] bytes = "{\"items\": []}".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(bytes);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            Client client = new Client("127.0.0.1", String.valueOf(server.getAddress().getPort()), "v1beta1", null);
+            long start = System.nanoTime();
+            Assert.assertEquals(0, client.getPods().size());
+            long took = (System.nanoTime() - start) / 1000000;
+            Assert.assertEquals(2, requests.get());
+            Assert.assertTrue("Took " + took, took >= 900);
+            Assert.assertEquals(2, client.getRateLimiter().getRequests());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final byte[] data = SlimPingData.toBytes(Utils.createPingData("10.1.0.1", 7600));
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (requests.incrementAndGet() == 1) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(503, -1);
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", SlimPingData.CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, data.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(data);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            Client client = new Client("127.0.0.1", "1234", "v1beta1", null);
+            long start = System.nanoTime();
+            Assert.assertNotNull(client.getPingData("127.0.0.1", server.getAddress().getPort()));
+            long took = (System.nanoTime() - start) / 1000000;
+            Assert.assertEquals(2, requests.get());
+            // retried after the jittered Retry-After
+            Assert.assertTrue("Took " + took, took >= 450 && took < 3000);
+            Assert.assertEquals(1, client.getPingOverloaded());
+            Assert.assertEquals(0, client.getRateLimiter().getRequests());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
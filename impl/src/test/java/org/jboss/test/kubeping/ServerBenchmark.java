@@ -0,0 +1,288 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.kubeping.rest.JBossServerFactory;
+import org.jboss.kubeping.rest.JDKServerFactory;
+import org.jboss.kubeping.rest.Server;
+import org.jboss.kubeping.rest.ServerFactory;
+import org.jboss.kubeping.rest.UndertowServerFactory;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.TCP;
+import org.jgroups.protocols.TCPPING;
+import org.jgroups.protocols.UNICAST2;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+
+/**
+ * HTTP load benchmark of the ping servers, in the order Utils tries them.
+ *
+ * Not a test, run it from the IDE or with exec:java, tuning it with system properties:
+ * kubeping.bench.clients (16), kubeping.bench.warmup (3) and kubeping.bench.duration (10) seconds,
+ * kubeping.bench.path (/?format=slim), kubeping.bench.port (8888)
+ * and kubeping.bench.servers (comma separated factory names, e.g. JDKServerFactory; all by default).
+ *
+ * For each server it reports requests/s, p50/p99/p999 latency, the peak number of threads
+ * and the bytes allocated per request by all but the client threads, for keep-alive and non keep-alive clients.
+ * Allocation is read from the HotSpot thread MXBean, threads which die during the run are not counted.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ServerBenchmark {
+    private static final int CLIENTS = Integer.getInteger("kubeping.bench.clients", 16);
+    private static final int WARMUP = Integer.getInteger("kubeping.bench.warmup", 3);
+    private static final int DURATION = Integer.getInteger("kubeping.bench.duration", 10);
+    private static final String PATH = System.getProperty("kubeping.bench.path", "/?format=slim");
+    private static final int PORT = Integer.getInteger("kubeping.bench.port", 8888);
+    private static final String SERVERS = System.getProperty("kubeping.bench.servers");
+
+    public static void main(String[] args) throws Exception {
+        JChannel channel = new JChannel(
+            new TCP().setValue("bind_addr", InetAddress.getLoopbackAddress()),
+            new TCPPING(),
+            new NAKACK2(),
+            new UNICAST2(),
+            new STABLE(),
+            new GMS()
+        );
+        channel.setName("bench");
+        channel.connect("bench");
+        try {
+            List<ServerFactory> factories = Arrays.asList(new UndertowServerFactory(), new JBossServerFactory(), new JDKServerFactory());
+            System.out.println(String.format("%d clients, %ds warmup, %ds run, GET %s", CLIENTS, WARMUP, DURATION, PATH));
+            System.out.println(String.format("%-22s %-10s %10s %9s %9s %9s %8s %12s", "server", "clients", "req/s", "p50 us", "p99 us", "p999 us", "threads", "bytes/req"));
+            for (ServerFactory factory : factories) {
+                String name = factory.getClass().getSimpleName();
+                if (SERVERS != null && Arrays.asList(SERVERS.split(",")).contains(name) == false) {
+                    continue;
+                }
+                if (factory.isAvailable() == false) {
+                    System.out.println(String.format("%-22s not available", name));
+                    continue;
+                }
+                for (boolean keepAlive : new boolean[]{true, false}) {
+                    int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+                    Server server = factory.create(PORT, channel);
+                    server.start();
+                    try {
+                        run(keepAlive, WARMUP, baseThreads);
+                        Result result = run(keepAlive, DURATION, baseThreads);
+                        System.out.println(String.format("%-22s %-10s %10.0f %9d %9d %9d %8d %12d",
+                            name, keepAlive ? "keep-alive" : "close", result.requests / (double) DURATION,
+                            result.percentile(50), result.percentile(99), result.percentile(99.9), result.threads, result.allocated));
+                    } finally {
+                        server.stop();
+                    }
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Result run(boolean keepAlive, int seconds, int baseThreads) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(CLIENTS);
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(new Client(keepAlive, end, done));
+        }
+        long allocatedBefore = allocated(threads);
+        for (Client client : clients) {
+            client.start();
+        }
+        done.await();
+        long allocatedAfter = allocated(threads);
+
+        Result result = new Result();
+        long clientAllocated = 0;
+        for (Client client : clients) {
+            if (client.failure != null) {
+                throw client.failure;
+            }
+            result.add(client.latencies, client.count);
+            clientAllocated += client.allocated;
+        }
+        result.sort();
+        result.threads = threads.getPeakThreadCount() - baseThreads - CLIENTS;
+        if (result.requests > 0) {
+            result.allocated = Math.max(0, allocatedAfter - allocatedBefore - clientAllocated) / result.requests;
+        }
+        return result;
+    }
+
+    private static long allocated(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean == false) {
+            return 0;
+        }
+        long total = 0;
+        for (long size : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, size);
+        }
+        return total;
+    }
+
+    private static class Client extends Thread {
+        private static final byte[] CRLF = new byte[]{'\r', '\n'};
+
+        private final boolean keepAlive;
+        private final long end;
+        private final CountDownLatch done;
+        private final byte[] request;
+        private long[] latencies = new long[16 * 1024];
+        private int count;
+        private long allocated;
+        private Exception failure;
+
+        private Client(boolean keepAlive, long end, CountDownLatch done) {
+            this.keepAlive = keepAlive;
+            this.end = end;
+            this.done = done;
+            this.request = String.format("GET %s HTTP/1.1\r\nHost: localhost\r\n%s\r\n", PATH, keepAlive ? "" : "Connection: close\r\n").getBytes(StandardCharsets.US_ASCII);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long allocatedBefore = allocated(threads, getId());
+            Socket socket = null;
+            InputStream in = null;
+            try {
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    if (socket == null) {
+                        socket = new Socket();
+                        socket.setTcpNoDelay(true);
+                        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+                        in = new BufferedInputStream(socket.getInputStream());
+                    }
+                    socket.getOutputStream().write(request);
+                    readResponse(in);
+                    if (keepAlive == false) {
+                        socket.close();
+                        socket = null;
+                    }
+                    record(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                allocated = allocated(threads, getId()) - allocatedBefore;
+                done.countDown();
+            }
+        }
+
+        private static long allocated(ThreadMXBean threads, long id) {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(id);
+            }
+            return 0;
+        }
+
+        private void record(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+
+        private static void readResponse(InputStream in) throws IOException {
+            String status = readLine(in);
+            if (status.startsWith("HTTP/1.1 200") == false && status.startsWith("HTTP/1.1 304") == false) {
+                throw new IOException("Unexpected response: " + status);
+            }
+            int length = 0;
+            String line;
+            while ((line = readLine(in)).isEmpty() == false) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder builder = new StringBuilder();
+            int c;
+            while ((c = in.read()) != CRLF[1]) {
+                if (c < 0) {
+                    throw new EOFException();
+                }
+                if (c != CRLF[0]) {
+                    builder.append((char) c);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class Result {
+        private long[] latencies = new long[0];
+        private int requests;
+        private int threads;
+        private long allocated;
+
+        private void add(long[] values, int count) {
+            latencies = Arrays.copyOf(latencies, requests + count);
+            System.arraycopy(values, 0, latencies, requests, count);
+            requests += count;
+        }
+
+        private void sort() {
+            Arrays.sort(latencies);
+        }
+
+        private long percentile(double percentile) {
+            if (requests == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * requests) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(latencies[Math.max(0, index)]);
+        }
+    }
+}
@@ -18,11 +18,19 @@ package org.jboss.test.kubeping;
 
 import java.io.DataInputStream;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
 
 import org.jboss.kubeping.Constants;
 import org.jboss.kubeping.KubePing;
 import org.jboss.kubeping.rest.Client;
+import org.jboss.kubeping.rest.PeerLeavingException;
+import org.jboss.kubeping.rest.SlimPingData;
 import org.jboss.kubeping.rest.Utils;
 import org.jboss.test.kubeping.support.TestServerClient;
 import org.jgroups.conf.ClassConfigurator;
@@ -44,6 +52,7 @@ public abstract class ServerTestBase extends TestBase {
         KubePing ping = new TestKubePing();
         ping.setHost("localhost");
         ping.setPort("1234");
+        ping.setLeaveToken("secret");
         applyConfig(ping);
         return ping;
     }
@@ -57,9 +66,125 @@ public abstract class ServerTestBase extends TestBase {
             PingData data = new PingData();
             data.readFrom(new DataInputStream(stream));
             Assert.assertEquals(data, Utils.createPingData(channels[0]));
+            // single member, so it is the coordinator
+            Assert.assertTrue(data.isServer());
+            Assert.assertTrue(data.isCoord());
         }
     }
 
+    @Test
+    public void testSlimResponse() throws Exception {
+        URLConnection connection = new URL("http://localhost:8888/?format=slim").openConnection();
+        try (InputStream stream = connection.getInputStream()) {
+            Assert.assertEquals(SlimPingData.CONTENT_TYPE, connection.getContentType());
+            PingData data = SlimPingData.readFrom(new DataInputStream(stream));
+            PingData expected = Utils.createPingData(channels[0]);
+            Assert.assertEquals(expected.getAddress(), data.getAddress());
+            Assert.assertEquals(expected.getLogicalName(), data.getLogicalName());
+            Assert.assertNull(data.getView());
+            Assert.assertTrue(data.isServer());
+            Assert.assertTrue(data.isCoord());
+        }
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        String etag = connection.getHeaderField("ETag");
+        Assert.assertNotNull(etag);
+        connection.getInputStream().close();
+
+        connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+        connection.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(304, connection.getResponseCode());
+
+        // full format has its own tag
+        connection = (HttpURLConnection) new URL("http://localhost:8888").openConnection();
+        connection.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(200, connection.getResponseCode());
+        connection.getInputStream().close();
+
+        Client client = new TestServerClient();
+        PingData data = client.getPingData("localhost", 8888);
+        Assert.assertSame(data, client.getPingData("localhost", 8888));
+        Assert.assertEquals(1, client.getNotModified());
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8888/watch?format=slim&timeout=300").openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        String etag = connection.getHeaderField("ETag");
+        connection.getInputStream().close();
+
+        // nothing changes, so it is held until the timeout
+        long start = System.currentTimeMillis();
+        connection = (HttpURLConnection) new URL("http://localhost:8888/watch?format=slim&timeout=300").openConnection();
+        connection.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(304, connection.getResponseCode());
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took >= 250);
+
+        Client client = new TestServerClient();
+        PingData data = client.watchPingData("localhost", 8888, 300);
+        Assert.assertSame(data, client.watchPingData("localhost", 8888, 300));
+    }
+
+    @Test
+    public void testLeave() throws Exception {
+        // the preStop hook, answered once the grace period is over
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8888/leave").openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("Took " + took, took >= 900);
+
+        connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+        Assert.assertEquals(410, connection.getResponseCode());
+
+        Client client = new TestServerClient();
+        try {
+            client.getPingData("localhost", 8888);
+            Assert.fail("Should not get ping data from leaving node");
+        } catch (PeerLeavingException expected) {
+        }
+    }
+
+    @Test
+    public void testLeaveOnlyFromPod() throws Exception {
+        InetAddress address = getNonLoopbackAddress();
+        if (address == null) {
+            System.out.println("No non-loopback address, skipping.");
+            return;
+        }
+        String leave = "http://" + address.getHostAddress() + ":8888/leave";
+        HttpURLConnection connection = (HttpURLConnection) new URL(leave).openConnection();
+        Assert.assertEquals(403, connection.getResponseCode());
+        connection = (HttpURLConnection) new URL(leave + "?token=wrong").openConnection();
+        Assert.assertEquals(403, connection.getResponseCode());
+        connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        connection.getInputStream().close();
+
+        // e.g. the kubelet, running an httpGet preStop hook
+        connection = (HttpURLConnection) new URL(leave + "?token=secret").openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        connection = (HttpURLConnection) new URL("http://localhost:8888/?format=slim").openConnection();
+        Assert.assertEquals(410, connection.getResponseCode());
+    }
+
+    private static InetAddress getNonLoopbackAddress() throws Exception {
+        for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            for (InetAddress address : Collections.list(ni.getInetAddresses())) {
+                if (address instanceof Inet4Address && address.isLoopbackAddress() == false && address.isLinkLocalAddress() == false) {
+                    return address;
+                }
+            }
+        }
+        return null;
+    }
+
     private static final class TestKubePing extends KubePing {
         static {
             ClassConfigurator.addProtocol(Constants.HACK_KUBE_PING_ID, TestKubePing.class);
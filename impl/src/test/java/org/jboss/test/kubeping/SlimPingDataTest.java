@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.kubeping.rest.Base64;
+import org.jboss.kubeping.rest.SlimPingData;
+import org.jgroups.Address;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.ViewId;
+import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SlimPingDataTest {
+    private static final int ROUNDS = 1000;
+
+    private static PingData createPingData(int members) throws Exception {
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            addresses.add(UUID.randomUUID());
+        }
+        Address coordinator = addresses.get(0);
+        View view = new View(new ViewId(coordinator, members), addresses);
+        List<PhysicalAddress> physicalAddresses = Collections.<PhysicalAddress>singletonList(new IpAddress("10.1.2.3", 7800));
+        return new PingData(coordinator, view, true, "node-0", physicalAddresses);
+    }
+
+    private static byte[] toBytes(PingData data) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        data.writeTo(out);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        PingData data = createPingData(10);
+        PingData copy = SlimPingData.readFrom(new DataInputStream(new ByteArrayInputStream(SlimPingData.toBytes(data))));
+        Assert.assertEquals(data.getAddress(), copy.getAddress());
+        Assert.assertEquals(data.getLogicalName(), copy.getLogicalName());
+        Assert.assertEquals(new ArrayList<>(data.getPhysicalAddrs()), new ArrayList<>(copy.getPhysicalAddrs()));
+        Assert.assertEquals(data.getView().getViewId(), copy.getViewId());
+        Assert.assertTrue(copy.isServer());
+        Assert.assertTrue(copy.isCoord());
+        Assert.assertNull(copy.getView());
+    }
+
+    @Test
+    public void testBase64() throws Exception {
+        // RFC 4648 test vectors
+        String[][] vectors = {{"", ""}, {"f", "Zg=="}, {"fo", "Zm8="}, {"foo", "Zm9v"}, {"foob", "Zm9vYg=="}, {"fooba", "Zm9vYmE="}, {"foobar", "Zm9vYmFy"}};
+        for (String[] vector : vectors) {
+            Assert.assertEquals(vector[1], Base64.encode(vector[0].getBytes(StandardCharsets.US_ASCII)));
+            Assert.assertEquals(vector[0], new String(Base64.decode(vector[1]), StandardCharsets.US_ASCII));
+        }
+        Assert.assertEquals("foob", new String(Base64.decode("Zm9v\nYg"), StandardCharsets.US_ASCII));
+
+        PingData data = createPingData(10);
+        PingData copy = SlimPingData.fromBase64(SlimPingData.toBase64(data));
+        Assert.assertEquals(data.getAddress(), copy.getAddress());
+        Assert.assertEquals(data.getView().getViewId(), copy.getViewId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBase64() throws Exception {
+        Base64.decode("Zm9v!");
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        for (int members : new int[]{100, 500}) {
+            PingData data = createPingData(members);
+
+            long start = System.nanoTime();
+            byte[] full = null;
+            for (int i = 0; i < ROUNDS; i++) {
+                full = toBytes(data);
+            }
+            long fullTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[] slim = null;
+            for (int i = 0; i < ROUNDS; i++) {
+                slim = SlimPingData.toBytes(data);
+            }
+            long slimTime = System.nanoTime() - start;
+
+            System.out.println(String.format("%s members: full %s bytes, %s us/op; slim %s bytes, %s us/op",
+                members, full.length, fullTime / ROUNDS / 1000, slim.length, slimTime / ROUNDS / 1000));
+            Assert.assertTrue(slim.length < full.length);
+        }
+    }
+}
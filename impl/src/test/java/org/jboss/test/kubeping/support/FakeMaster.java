@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal local Kubernetes master: lists pods and applies merge patches to their annotations.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class FakeMaster {
+    private final Map<String, Map<String, String>> pods = new LinkedHashMap<>();
+    private final Map<String, String> ips = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pingPorts = new ConcurrentHashMap<>();
+    private final AtomicInteger lists = new AtomicInteger();
+    private final AtomicInteger patches = new AtomicInteger();
+    private HttpServer server;
+
+    public synchronized void addPod(String name, String podIP) {
+        pods.put(name, new LinkedHashMap<String, String>());
+        ips.put(name, podIP);
+    }
+
+    public synchronized void addPod(String name, String podIP, int pingPort) {
+        addPod(name, podIP);
+        pingPorts.put(name, pingPort);
+    }
+
+    public synchronized void removePod(String name) {
+        pods.remove(name);
+        ips.remove(name);
+        pingPorts.remove(name);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1beta3/pods", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String path = exchange.getRequestURI().getPath();
+                    String name = path.substring(path.lastIndexOf('/') + 1);
+                    if ("GET".equals(exchange.getRequestMethod()) && "pods".equals(name)) {
+                        lists.incrementAndGet();
+                        send(exchange, 200, list());
+                    } else if ("PATCH".equals(exchange.getRequestMethod())) {
+                        patches.incrementAndGet();
+                        send(exchange, patch(name, read(exchange.getRequestBody())) ? 200 : 404, "{}");
+                    } else {
+                        send(exchange, 405, "{}");
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    public String getPort() {
+        return String.valueOf(server.getAddress().getPort());
+    }
+
+    public int getLists() {
+        return lists.get();
+    }
+
+    public int getPatches() {
+        return patches.get();
+    }
+
+    public synchronized Map<String, String> getAnnotations(String pod) {
+        return new LinkedHashMap<>(pods.get(pod));
+    }
+
+    private synchronized boolean patch(String pod, String body) {
+        Map<String, String> annotations = pods.get(pod);
+        if (annotations == null) {
+            return false;
+        }
+        ModelNode patch = ModelNode.fromJSONString(body).get("metadata").get("annotations");
+        for (Property entry : patch.asPropertyList()) {
+            if (entry.getValue().isDefined()) {
+                annotations.put(entry.getName(), entry.getValue().asString());
+            } else {
+                annotations.remove(entry.getName());
+            }
+        }
+        return true;
+    }
+
+    private synchronized String list() {
+        StringBuilder builder = new StringBuilder("{\"items\": [");
+        boolean first = true;
+        for (Map.Entry<String, Map<String, String>> pod : pods.entrySet()) {
+            if (first == false) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append("{\"metadata\": {\"name\": \"").append(pod.getKey()).append("\", \"annotations\": {");
+            boolean firstAnnotation = true;
+            for (Map.Entry<String, String> annotation : pod.getValue().entrySet()) {
+                if (firstAnnotation == false) {
+                    builder.append(", ");
+                }
+                firstAnnotation = false;
+                builder.append("\"").append(annotation.getKey()).append("\": \"").append(annotation.getValue()).append("\"");
+            }
+            builder.append("}}, \"desiredState\": {\"manifest\": {\"containers\": [");
+            Integer pingPort = pingPorts.get(pod.getKey());
+            if (pingPort != null) {
+                builder.append("{\"name\": \"app\", \"ports\": [{\"name\": \"ping\", \"containerPort\": ").append(pingPort).append("}]}");
+            }
+            builder.append("]}},");
+            builder.append(" \"currentState\": {\"host\": \"node-1\", \"podIP\": \"").append(ips.get(pod.getKey())).append("\", \"status\": \"Running\"}}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = stream.read(buffer)) != -1) {
+            baos.write(buffer, 0, n);
+        }
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.kubeping.rest.SlimPingData;
+import org.jboss.kubeping.rest.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Synthetic pod farm: a fake master listing thousands of pods,
+ * each backed by a lightweight simulated ping data responder.
+ *
+ * Where the loopback range can be used (e.g. Linux), all responders share one HTTP server and port,
+ * each one having its own 127.x.y.z address; otherwise every responder gets its own port on 127.0.0.1.
+ * Responses are delayed on a scheduler, so slow responders don't hold any threads.
+ *
+ * Each responder can be slow, fail some of its requests, start answering only after a while,
+ * or disappear -- still listed by the master, but dropping every connection.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@SuppressWarnings("restriction")
+public class PodFarm {
+    private static final int TRANSPORT_PORT = 7600;
+
+    private final int size;
+    private long seed = 1;
+    private int minLatency;
+    private int maxLatency;
+    private double tailRate;
+    private int tailLatency;
+    private double failureRate;
+    private double slowStartRate;
+    private int slowStart;
+    private double disappearanceRate;
+
+    private final FakeMaster master = new FakeMaster();
+    private final List<Responder> responders = new ArrayList<>();
+    private final Map<InetAddress, Responder> byAddress = new HashMap<>();
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private boolean aliases;
+    private long started;
+
+    public PodFarm(int size) {
+        this.size = size;
+    }
+
+    public PodFarm setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Every response takes between min and max ms.
+     */
+    public PodFarm setLatency(int min, int max) {
+        this.minLatency = min;
+        this.maxLatency = Math.max(min, max);
+        return this;
+    }
+
+    /**
+     * This fraction of the responses takes the tail latency instead.
+     */
+    public PodFarm setTail(double rate, int latency) {
+        this.tailRate = rate;
+        this.tailLatency = latency;
+        return this;
+    }
+
+    /**
+     * This fraction of the requests gets 500.
+     */
+    public PodFarm setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * This fraction of the responders answers 503 for the first ms after the start.
+     */
+    public PodFarm setSlowStart(double rate, int millis) {
+        this.slowStartRate = rate;
+        this.slowStart = millis;
+        return this;
+    }
+
+    /**
+     * This fraction of the responders is gone, while still listed by the master.
+     */
+    public PodFarm setDisappearanceRate(double disappearanceRate) {
+        this.disappearanceRate = disappearanceRate;
+        return this;
+    }
+
+    public void start() throws IOException {
+        aliases = canUseAliases();
+        scheduler = Executors.newScheduledThreadPool(4);
+        executor = Executors.newFixedThreadPool(8);
+        Random random = new Random(seed);
+        HttpServer shared = null;
+        if (aliases) {
+            // all of 127/8 is loopback, the wildcard address accepts it
+            shared = createServer(new InetSocketAddress(0));
+        }
+        for (int i = 0; i < size; i++) {
+            String name = String.format("pod-%05d", i);
+            boolean slow = random.nextDouble() < slowStartRate;
+            boolean gone = random.nextDouble() < disappearanceRate;
+            Responder responder;
+            if (aliases) {
+                InetAddress address = InetAddress.getByAddress(new byte[]{127, (byte) (1 + i / 65536), (byte) (i / 256), (byte) (i % 256)});
+                responder = new Responder(name, address.getHostAddress(), shared.getAddress().getPort(), slow, gone);
+                byAddress.put(address, responder);
+            } else {
+                HttpServer server = createServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                responder = new Responder(name, "127.0.0.1", server.getAddress().getPort(), slow, gone);
+                server.createContext("/", new Handler(responder));
+            }
+            responders.add(responder);
+            master.addPod(name, responder.host, responder.port);
+        }
+        if (shared != null) {
+            shared.createContext("/", new Handler(null));
+        }
+        started = System.currentTimeMillis();
+        for (HttpServer server : servers) {
+            server.start();
+        }
+        master.start();
+    }
+
+    public void stop() {
+        master.stop();
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public FakeMaster getMaster() {
+        return master;
+    }
+
+    public List<Responder> getResponders() {
+        return responders;
+    }
+
+    public boolean isAliases() {
+        return aliases;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private HttpServer createServer(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 1024);
+        server.setExecutor(executor);
+        servers.add(server);
+        return server;
+    }
+
+    private static boolean canUseAliases() {
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(0));
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.1.0.1", server.getLocalPort()), 1000);
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long latency(Random random) {
+        if (random.nextDouble() < tailRate) {
+            return tailLatency;
+        }
+        return minLatency + (maxLatency > minLatency ? random.nextInt(maxLatency - minLatency + 1) : 0);
+    }
+
+    /**
+     * One simulated pod.
+     */
+    public static class Responder {
+        private final String name;
+        private final String host;
+        private final int port;
+        private final boolean slowStart;
+        private final boolean gone;
+        private final AtomicLong requests = new AtomicLong();
+        private volatile byte[] response;
+
+        private Responder(String name, String host, int port, boolean slowStart, boolean gone) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.slowStart = slowStart;
+            this.gone = gone;
+        }
+
+        private byte[] getResponse() throws IOException {
+            if (response == null) {
+                try {
+                    response = SlimPingData.toBytes(Utils.createPingData(host, TRANSPORT_PORT));
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return response;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public boolean isSlowStart() {
+            return slowStart;
+        }
+
+        public boolean isGone() {
+            return gone;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+    }
+
+    private class Handler implements HttpHandler {
+        private final Responder responder;
+
+        private Handler(Responder responder) {
+            this.responder = responder;
+        }
+
+        public void handle(final HttpExchange exchange) throws IOException {
+            final Responder current = (responder != null) ? responder : byAddress.get(exchange.getLocalAddress().getAddress());
+            requests.incrementAndGet();
+            if (current == null || current.gone) {
+                dropped.incrementAndGet();
+                exchange.close();
+                return;
+            }
+            current.requests.incrementAndGet();
+            Random random = ThreadLocalRandom.current();
+            final int status;
+            if (current.slowStart && System.currentTimeMillis() - started < slowStart) {
+                status = 503;
+            } else if (random.nextDouble() < failureRate) {
+                status = 500;
+            } else {
+                status = 200;
+            }
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        respond(exchange, current, status);
+                    } catch (IOException ignored) {
+                    } finally {
+                        exchange.close();
+                    }
+                }
+            }, latency(random), TimeUnit.MILLISECONDS);
+        }
+
+        private void respond(HttpExchange exchange, Responder current, int status) throws IOException {
+            if (status != 200) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = current.getResponse();
+            exchange.getResponseHeaders().set("Content-Type", SlimPingData.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+}
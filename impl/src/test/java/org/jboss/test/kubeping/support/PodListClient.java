@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.kubeping.rest.Client;
+
+/**
+ * Client listing pods added by the test, optionally slow or failing.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PodListClient extends Client {
+    private final List<String> pods = new CopyOnWriteArrayList<>();
+    private final AtomicInteger lists = new AtomicInteger();
+    private volatile long delay;
+    private volatile boolean failing;
+
+    /**
+     * Add a running pod, with a single container exposing the given port; pods added first are older.
+     */
+    public PodListClient addPod(String name, String podIP, String portName, int port) {
+        pods.add("{\"metadata\": {\"name\": \"" + name + "\", \"creationTimestamp\": \"2015-01-28T10:00:0" + pods.size() + "Z\"}," +
+            " \"desiredState\": {\"manifest\": {\"containers\": [{\"name\": \"app\", \"ports\": [{\"name\": \"" + portName + "\", \"containerPort\": " + port + "}]}]}}," +
+            " \"currentState\": {\"host\": \"node-1\", \"podIP\": \"" + podIP + "\", \"status\": \"Running\"}}");
+        return this;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * @return number of pod lists asked for
+     */
+    public int getLists() {
+        return lists.get();
+    }
+
+    @Override
+    protected ModelNode getNode(String op, String namespace, String labelsQuery, int tries, long deadline) throws IOException {
+        lists.incrementAndGet();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if (failing) {
+            throw new IOException("Master is down.");
+        }
+        StringBuilder builder = new StringBuilder("{\"items\": [");
+        for (int i = 0; i < pods.size(); i++) {
+            builder.append(i > 0 ? ", " : "").append(pods.get(i));
+        }
+        return ModelNode.fromJSONString(builder.append("]}").toString());
+    }
+}
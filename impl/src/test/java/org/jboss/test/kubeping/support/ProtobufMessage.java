@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Minimal protobuf writer, to record master responses in the Kubernetes protobuf format.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ProtobufMessage {
+    private static final byte[] MAGIC = {'k', '8', 's', 0};
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    public ProtobufMessage varint(int field, long value) {
+        tag(field, 0);
+        writeVarint(value);
+        return this;
+    }
+
+    public ProtobufMessage fixed64(int field, long value) {
+        tag(field, 1);
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+        return this;
+    }
+
+    public ProtobufMessage bytes(int field, byte[] value) {
+        tag(field, 2);
+        writeVarint(value.length);
+        out.write(value, 0, value.length);
+        return this;
+    }
+
+    public ProtobufMessage string(int field, String value) {
+        return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ProtobufMessage message(int field, ProtobufMessage value) {
+        return bytes(field, value.toBytes());
+    }
+
+    public ProtobufMessage map(int field, Map<String, String> value) {
+        for (Map.Entry<String, String> entry : value.entrySet()) {
+            message(field, new ProtobufMessage().string(1, entry.getKey()).string(2, entry.getValue()));
+        }
+        return this;
+    }
+
+    public byte[] toBytes() {
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap the object the way the master sends it: magic, then runtime.Unknown holding the raw object.
+     *
+     * @param kind the object kind
+     * @param raw the object
+     * @return response body
+     */
+    public static byte[] envelope(String kind, ProtobufMessage raw) {
+        ProtobufMessage unknown = new ProtobufMessage()
+            .message(1, new ProtobufMessage().string(1, "v1").string(2, kind))
+            .message(2, raw)
+            .string(4, "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(MAGIC, 0, MAGIC.length);
+        byte[] bytes = unknown.toBytes();
+        body.write(bytes, 0, bytes.length);
+        return body.toByteArray();
+    }
+
+    private void tag(int field, int type) {
+        writeVarint((field << 3) | type);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -90,7 +90,7 @@ public class TestClient extends Client {
     }
 
     @Override
-    protected ModelNode getNode(String op, String namespace, String labels) throws IOException {
+    protected ModelNode getNode(String op, String namespace, String labels, int tries, long deadline) throws IOException {
         String value = ops.get(op);
         if (value == null) {
             throw new IllegalStateException("No such op: " + op);
@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in UDP DNS server, answering A and SRV queries from its own records.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TestDnsServer implements Runnable {
+    private static final int A = 1;
+    private static final int SRV = 33;
+
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private DatagramSocket socket;
+    private boolean additionals = true;
+
+    public void addA(String name, int ttl, String address) throws IOException {
+        Entry entry = new Entry(name, A, ttl);
+        entry.address = InetAddress.getByName(address).getAddress();
+        entries.add(entry);
+    }
+
+    public void addSrv(String name, int ttl, int port, String target) {
+        Entry entry = new Entry(name, SRV, ttl);
+        entry.port = port;
+        entry.target = target;
+        entries.add(entry);
+    }
+
+    public void setAdditionals(boolean additionals) {
+        this.additionals = additionals;
+    }
+
+    public int getQueries() {
+        return queries.get();
+    }
+
+    public String getServer() {
+        return "127.0.0.1:" + socket.getLocalPort();
+    }
+
+    public void start() throws IOException {
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread thread = new Thread(this, "test-dns-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        socket.close();
+    }
+
+    public void run() {
+        byte[] buffer = new byte[4096];
+        while (socket.isClosed() == false) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                queries.incrementAndGet();
+                byte[] response = respond(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private byte[] respond(ByteBuffer query) throws IOException {
+        int id = query.getShort() & 0xFFFF;
+        query.position(12);
+        StringBuilder builder = new StringBuilder();
+        int length;
+        while ((length = query.get()) != 0) {
+            byte[] label = new byte[length];
+            query.get(label);
+            if (builder.length() > 0) {
+                builder.append('.');
+            }
+            builder.append(new String(label, StandardCharsets.US_ASCII));
+        }
+        String name = builder.toString();
+        int type = query.getShort();
+
+        List<Entry> answers = find(name, type);
+        List<Entry> extra = new ArrayList<>();
+        if (additionals) {
+            for (Entry answer : answers) {
+                if (answer.target != null) {
+                    extra.addAll(find(answer.target, A));
+                }
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeShort(id);
+        out.writeShort(answers.isEmpty() ? 0x8183 : 0x8180);
+        out.writeShort(1);
+        out.writeShort(answers.size());
+        out.writeShort(0);
+        out.writeShort(extra.size());
+        writeName(out, name);
+        out.writeShort(type);
+        out.writeShort(1);
+        for (Entry answer : answers) {
+            answer.writeTo(out);
+        }
+        for (Entry entry : extra) {
+            entry.writeTo(out);
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private List<Entry> find(String name, int type) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.name.equalsIgnoreCase(name) && entry.type == type) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+        out.writeByte(0);
+    }
+
+    private static class Entry {
+        private final String name;
+        private final int type;
+        private final int ttl;
+        private byte[] address;
+        private int port;
+        private String target;
+
+        private Entry(String name, int type, int ttl) {
+            this.name = name;
+            this.type = type;
+            this.ttl = ttl;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            writeName(out, name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeInt(ttl);
+            if (type == A) {
+                out.writeShort(address.length);
+                out.write(address);
+            } else {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(baos);
+                data.writeShort(0);
+                data.writeShort(100);
+                data.writeShort(port);
+                writeName(data, target);
+                data.flush();
+                out.writeShort(baos.size());
+                out.write(baos.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.jboss.test.kubeping.support;
+
+import java.util.List;
+
+import org.jboss.kubeping.KubePing;
+import org.jboss.kubeping.rest.Client;
+import org.jgroups.protocols.PingData;
+
+/**
+ * KubePing with a given client, and readAll open to tests.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TestKubePing extends KubePing {
+    private final Client client;
+
+    public TestKubePing(Client client) {
+        this.client = client;
+    }
+
+    @Override
+    protected Client createClient() throws Exception {
+        return client;
+    }
+
+    @Override
+    public List<PingData> readAll(String clusterName) {
+        return super.readAll(clusterName);
+    }
+}